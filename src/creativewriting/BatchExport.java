@@ -0,0 +1,326 @@
+package creativewriting;
+
+import creativewriting.textmodel.TextModel;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.xml.sax.SAXException;
+
+/**
+ * Exports text of all session files in a directory to txt or Markdown files,
+ * without graphical interface. Files are exported in parallel, and image
+ * libraries aren't indexed. Usage:
+ * <pre>
+ * java creativewriting.Main --export dir [--out dir] [--format txt|md] [--threads n]
+ * </pre>
+ *
+ * @author Thiago
+ */
+public class BatchExport {
+
+    /**
+     * Option that starts batch export.
+     */
+    static final String EXPORT_OPTION = "--export";
+
+    /**
+     * Directory with session files to export.
+     */
+    private File sourceDir;
+
+    /**
+     * Directory where exported files are written.
+     */
+    private File targetDir;
+
+    /**
+     * Defines if files are exported in Markdown format, instead of txt.
+     */
+    private boolean markdown;
+
+    /**
+     * Number of files exported at the same time.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Constructor. Can't be called outside this class, use {@code run()}.
+     */
+    private BatchExport() {
+    }
+
+    /**
+     * Runs batch export with command line arguments.
+     *
+     * @param args command line arguments.
+     * @return exit status: 0 if all files were exported, 1 if some file
+     * couldn't be exported, 2 if arguments are invalid.
+     */
+    public static int run(String[] args) {
+        BatchExport export = new BatchExport();
+        try {
+            export.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: --export dir [--out dir] [--format txt|md] [--threads n]");
+            return 2;
+        }
+        return export.export();
+    }
+
+    /**
+     * Reads command line arguments.
+     *
+     * @param args command line arguments.
+     * @throws IllegalArgumentException if arguments are invalid.
+     */
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[++i];
+            switch (args[i - 1]) {
+                case EXPORT_OPTION:
+                    sourceDir = new File(value);
+                    break;
+                case "--out":
+                    targetDir = new File(value);
+                    break;
+                case "--format":
+                    if (!value.equals("txt") && !value.equals("md")) {
+                        throw new IllegalArgumentException("Unknown format: " + value);
+                    }
+                    markdown = value.equals("md");
+                    break;
+                case "--threads":
+                    try {
+                        threads = Integer.parseInt(value);
+                    } catch (NumberFormatException ex) {
+                        threads = 0;
+                    }
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("Invalid number of threads: " + value);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i - 1]);
+            }
+        }
+        if (sourceDir == null || !sourceDir.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory: " + sourceDir);
+        }
+        if (targetDir == null) {
+            targetDir = sourceDir;
+        }
+    }
+
+    /**
+     * Exports all session files of source directory, then prints statistics.
+     *
+     * @return exit status: 0 if all files were exported, 1 otherwise.
+     */
+    private int export() {
+        File[] files = sourceDir.listFiles();
+        List<File> sessions = new ArrayList<>();
+        for (File file : files == null ? new File[0] : files) {
+            if (file.isFile() && TextModel.isSessionFileName(file.getName())) {
+                sessions.add(file);
+            }
+        }
+        if (!targetDir.isDirectory() && !targetDir.mkdirs()) {
+            System.err.println("Can't create directory: " + targetDir);
+            return 1;
+        }
+        List<File> outputs = outputFiles(sessions);
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int i = 0; i < sessions.size(); i++) {
+            File file = sessions.get(i);
+            File out = outputs.get(i);
+            results.add(pool.submit(new Callable<long[]>() {
+                @Override
+                public long[] call() throws IOException {
+                    return exportFile(file, out);
+                }
+            }));
+        }
+        pool.shutdown();
+
+        int exported = 0;
+        int failed = 0;
+        long paragraphs = 0;
+        long bytesRead = 0;
+        long bytesWritten = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                long[] stats = results.get(i).get();
+                exported++;
+                paragraphs += stats[0];
+                bytesRead += stats[1];
+                bytesWritten += stats[2];
+            } catch (ExecutionException ex) {
+                failed++;
+                System.err.println(sessions.get(i) + ": " + ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                pool.shutdownNow();
+                return 1;
+            }
+        }
+
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        System.out.printf("Exported %d of %d files (%d failed) with %d threads in %.2f s%n",
+                exported, sessions.size(), failed, threads, seconds);
+        System.out.printf("%d paragraphs, %.1f MB read, %.1f MB written%n",
+                paragraphs, bytesRead / 1048576.0, bytesWritten / 1048576.0);
+        System.out.printf("%.1f files/s, %.1f MB/s read%n",
+                exported / seconds, bytesRead / 1048576.0 / seconds);
+        return failed == 0 ? 0 : 1;
+    }
+
+    /**
+     * Returns files where session files are exported. Extension of session
+     * file is replaced by export extension, unless two session files differ
+     * only by their extension, like {@code a.xml} and {@code a.cwb}; then
+     * export extension is added to full name of both, so no file is written
+     * twice.
+     *
+     * @param sessions session files.
+     * @return exported files, in the same order as session files.
+     */
+    private List<File> outputFiles(List<File> sessions) {
+        String extension = markdown ? ".md" : ".txt";
+        Map<String, Integer> counts = new HashMap<>();
+        for (File file : sessions) {
+            String key = baseName(file).toLowerCase();
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+        }
+        List<File> outputs = new ArrayList<>(sessions.size());
+        for (File file : sessions) {
+            String name = counts.get(baseName(file).toLowerCase()) > 1
+                    ? file.getName() : baseName(file);
+            outputs.add(new File(targetDir, name + extension));
+        }
+        return outputs;
+    }
+
+    /**
+     * Returns name of a file without its extension.
+     *
+     * @param file file.
+     * @return file name, up to its last dot.
+     */
+    private static String baseName(File file) {
+        String name = file.getName();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    /**
+     * Exports a session file.
+     *
+     * @param file session file.
+     * @param out file to write.
+     * @return number of paragraphs, bytes read and bytes written.
+     * @throws IOException if file can't be read or written.
+     */
+    private long[] exportFile(File file, File out) throws IOException {
+        TextModel model;
+        try {
+            model = TextModel.readText(file);
+        } catch (SAXException ex) {
+            throw new IOException(ex);
+        }
+
+        if (markdown) {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(out.toPath()), StandardCharsets.UTF_8), 256 * 1024)) {
+                exportMarkdown(model, writer);
+            }
+        } else {
+            try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                model.exportText(channel, StandardCharsets.UTF_8);
+            }
+        }
+        return new long[]{model.getParagraphCount(), file.length(), out.length()};
+    }
+
+    /**
+     * Writes text of a TextModel in Markdown format: title as a heading, and
+     * paragraphs separated by empty lines. Leading spaces and tabs, which
+     * could make a paragraph a code block, are removed, and characters that
+     * would start Markdown blocks are escaped. Empty paragraphs are skipped.
+     *
+     * @param model TextModel to export.
+     * @param out writer to write.
+     * @throws IOException if writer can't be written.
+     */
+    private static void exportMarkdown(TextModel model, Writer out) throws IOException {
+        if (model.getTitle().length() > 0) {
+            out.write("# ");
+            out.write(model.getTitle());
+            out.write("\n\n");
+        }
+        for (String text : model.getParagraphs(0, model.getParagraphCount())) {
+            int start = 0;
+            while (start < text.length()
+                    && (text.charAt(start) == ' ' || text.charAt(start) == '\t')) {
+                start++;
+            }
+            if (start == text.length()) {
+                continue;
+            }
+            String paragraph = text.substring(start);
+            int marker = blockMarkerEnd(paragraph);
+            if (marker >= 0) {
+                out.write(paragraph, 0, marker);
+                out.write('\\');
+                out.write(paragraph, marker, paragraph.length() - marker);
+            } else {
+                out.write(paragraph);
+            }
+            out.write("\n\n");
+        }
+    }
+
+    /**
+     * Finds character that would make a paragraph be read as a Markdown
+     * heading, list, quote or code block.
+     *
+     * @param paragraph paragraph.
+     * @return index of character that must be escaped, or -1 if none.
+     */
+    private static int blockMarkerEnd(String paragraph) {
+        if ("#>-+*=`~".indexOf(paragraph.charAt(0)) >= 0) {
+            return 0;
+        }
+        int i = 0;
+        while (i < paragraph.length() && Character.isDigit(paragraph.charAt(i))) {
+            i++;
+        }
+        if (i > 0 && i < paragraph.length()
+                && (paragraph.charAt(i) == '.' || paragraph.charAt(i) == ')')) {
+            return i;
+        }
+        return -1;
+    }
+}
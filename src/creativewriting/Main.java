@@ -1,6 +1,9 @@
 package creativewriting;
 
 import creativewriting.gui.MainWindow;
+import creativewriting.textmodel.ThumbnailCache;
+import java.io.File;
+import java.util.concurrent.CompletionException;
 
 /**
  * Creative Writing is a software to train writer's creativity. Exercise is
@@ -15,12 +18,75 @@ import creativewriting.gui.MainWindow;
 public class Main {
 
     /**
-     * Main method. Creates and shows main window.
+     * Option that makes cached copies of images of a directory.
+     */
+    private static final String WARM_OPTION = "--warm-thumbnails";
+
+    /**
+     * Main method. Creates and shows main window. If first argument is
+     * {@code --export}, exports session files to text instead, without
+     * graphical interface; see {@link BatchExport}. If first argument is
+     * {@code --warm-thumbnails}, makes cached copies of images of a directory
+     * instead; see {@link #warmThumbnails(String[])}.
      *
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals(BatchExport.EXPORT_OPTION)) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(BatchExport.run(args));
+        }
+        if (args.length > 0 && args[0].equals(WARM_OPTION)) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(warmThumbnails(args));
+        }
         MainWindow window = new MainWindow();
         window.setVisible(true);
     }
+
+    /**
+     * Makes cached copies of all images of an image source directory, so
+     * they are shown faster afterwards; see {@link ThumbnailCache}. Usage:
+     * <pre>
+     * java creativewriting.Main --warm-thumbnails dir [--subdirectories] [--threads n]
+     * </pre>
+     *
+     * @param args command line arguments.
+     * @return exit status: 0 if directory was read, 1 if it couldn't be read,
+     * 2 if arguments are invalid.
+     */
+    private static int warmThumbnails(String[] args) {
+        File directory = args.length > 1 ? new File(args[1]) : null;
+        boolean subdirectories = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean valid = directory != null && directory.isDirectory();
+        for (int i = 2; i < args.length && valid; i++) {
+            if (args[i].equals("--subdirectories")) {
+                subdirectories = true;
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException ex) {
+                    threads = 0;
+                }
+                valid = threads > 0;
+            } else {
+                valid = false;
+            }
+        }
+        if (!valid) {
+            System.err.println("Usage: " + WARM_OPTION + " dir [--subdirectories] [--threads n]");
+            return 2;
+        }
+        long start = System.nanoTime();
+        try {
+            int count = ThumbnailCache.warm(directory, subdirectories, threads).join();
+            System.out.printf("Cached copies made for %d images in %.2f s%n",
+                    count, (System.nanoTime() - start) / 1e9);
+            return 0;
+        } catch (CompletionException ex) {
+            System.err.println(ex.getCause());
+            return 1;
+        }
+    }
 }
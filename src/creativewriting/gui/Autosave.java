@@ -0,0 +1,97 @@
+package creativewriting.gui;
+
+import creativewriting.textmodel.TextModel;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.function.BiConsumer;
+import javax.swing.Timer;
+
+/**
+ * Saves user's work periodically. At each interval, changes made in text
+ * editor are copied to TextModel, on event dispatch thread, and, if TextModel
+ * changed, it's written in background. All changes made during an interval are
+ * written together, so there is at most one write per interval.
+ *
+ * @author Thiago
+ */
+class Autosave {
+
+    /**
+     * Default interval between saves, in milliseconds.
+     */
+    static final int DEFAULT_INTERVAL = 30000;
+
+    /**
+     * Timer that fires saves, on event dispatch thread.
+     */
+    private final Timer timer;
+
+    /**
+     * Text editor from which changes are read.
+     */
+    private final TextEditor textEditor;
+
+    /**
+     * TextModel to save, or null.
+     */
+    private TextModel textModel;
+
+    /**
+     * Constructor. Makes a new Autosave. It starts saving when a TextModel is
+     * set.
+     * @param textEditor text editor from which changes are read.
+     * @param interval interval between saves, in milliseconds.
+     */
+    Autosave(TextEditor textEditor, int interval) {
+        this.textEditor = textEditor;
+        timer = new Timer(interval, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                save();
+            }
+        });
+        timer.setCoalesce(true);
+    }
+
+    /**
+     * Sets TextModel to save. Text editor must display this TextModel.
+     * @param textModel TextModel to save, or null to stop saving.
+     */
+    void setTextModel(TextModel textModel) {
+        this.textModel = textModel;
+        if (textModel == null) {
+            timer.stop();
+        } else {
+            timer.restart();
+        }
+    }
+
+    /**
+     * Sets interval between saves.
+     * @param interval interval between saves, in milliseconds.
+     */
+    void setInterval(int interval) {
+        timer.setDelay(interval);
+        timer.setInitialDelay(interval);
+    }
+
+    /**
+     * Copies changes from text editor and writes TextModel, if it changed.
+     */
+    private void save() {
+        if (textModel == null) {
+            return;
+        }
+        textEditor.applyChanges(textModel);
+        if (textModel.isModified()) {
+            textModel.saveInBackground().whenComplete(new BiConsumer<Void, Throwable>() {
+                @Override
+                public void accept(Void result, Throwable ex) {
+                    if (ex != null) {
+                        System.err.println(ex.getCause());
+                    }
+                }
+            });
+        }
+    }
+}
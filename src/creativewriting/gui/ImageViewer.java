@@ -1,19 +1,29 @@
 package creativewriting.gui;
 
+import creativewriting.textmodel.DaemonThreadFactory;
 import creativewriting.textmodel.TextModel;
+import creativewriting.textmodel.ThumbnailCache;
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+import java.text.MessageFormat;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 /**
  * Panel to show images.
@@ -47,6 +57,28 @@ public class ImageViewer extends JPanel {
      */
     private JButton next;
 
+    /**
+     * CANCEL button, shown while image library is indexed.
+     */
+    private JButton cancel;
+
+    /**
+     * ResourceBundle that defines language to show button text and messages.
+     */
+    private ResourceBundle rb;
+
+    /**
+     * Number of images found while image library is indexed, or -1 if image
+     * library isn't being indexed.
+     */
+    private int imagesFound = -1;
+
+    /**
+     * Background thread that makes scaled copies of images, for Tela.
+     */
+    private static final ExecutorService SCALER = Executors.newSingleThreadExecutor(
+            new DaemonThreadFactory("creativewriting-scaler"));
+
     /**
      * Constructor. Makes a new Image Viewer.
      * @param rb ResourceBundle that defines language to show button text.
@@ -87,9 +119,20 @@ public class ImageViewer extends JPanel {
         });
         next.setEnabled(false);
 
+        cancel = new JButton();
+        cancel.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                cancel.setEnabled(false);
+                textModel.cancelLoading();
+            }
+        });
+        cancel.setVisible(false);
+
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 5));
         buttonPanel.add(previous);
         buttonPanel.add(next);
+        buttonPanel.add(cancel);
 
         add(buttonPanel, BorderLayout.SOUTH);
         setButtonText(rb);
@@ -101,6 +144,9 @@ public class ImageViewer extends JPanel {
      */
     public void setTextModel(TextModel textModel) {
         this.textModel = textModel;
+        imagesFound = -1;
+        cancel.setVisible(false);
+        tela.setMessage(null);
 
         if (textModel == null) {
             tela.setImage(null);
@@ -108,6 +154,7 @@ public class ImageViewer extends JPanel {
             next.setEnabled(false);
             return;
         }
+        setImageSizeHint(textModel);
 
         if (textModel.getTotalImages() == 0) {
             tela.setImage(textModel.nextImage());
@@ -126,18 +173,75 @@ public class ImageViewer extends JPanel {
         }
     }
 
+    /**
+     * Links a TextModel whose image library is still being indexed. A message
+     * with indexing progress is shown until {@code setTextModel()} is called.
+     * @param textModel TextModel to link with this ImageViewer.
+     */
+    public void showLoading(TextModel textModel) {
+        this.textModel = textModel;
+        setImageSizeHint(textModel);
+        tela.setImage(null);
+        previous.setEnabled(false);
+        next.setEnabled(false);
+        cancel.setEnabled(true);
+        cancel.setVisible(true);
+        setLoadingProgress(0);
+    }
+
+    /**
+     * Tells a TextModel the largest size at which this ImageViewer can show
+     * images, so large images are decoded at about that size.
+     * @param textModel TextModel that decodes images.
+     */
+    private void setImageSizeHint(TextModel textModel) {
+        Dimension size = getImageSizeHint();
+        textModel.setImageSizeHint(size.width, size.height);
+    }
+
+    /**
+     * Returns the largest size at which an ImageViewer can show images. Main
+     * window gives half its width to ImageViewer, so this size is half the
+     * screen width by the screen height. It's given to TextModels made in
+     * background, so their first images are decoded at about this size.
+     * @return largest size at which images are shown.
+     */
+    public static Dimension getImageSizeHint() {
+        Rectangle bounds = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+        return new Dimension(bounds.width / 2, bounds.height);
+    }
+
+    /**
+     * Updates message with image library indexing progress.
+     * @param count number of images found so far.
+     */
+    public void setLoadingProgress(int count) {
+        if (!cancel.isVisible()) {
+            return;
+        }
+        imagesFound = count;
+        MessageFormat formatter = new MessageFormat(rb.getString("loading.message"));
+        tela.setMessage(formatter.format(new Object[]{count}));
+    }
+
     /**
      * Sets button title language.
      * @param rb ResourceBundle that defines language to show button text.
      */
     public void setButtonText(ResourceBundle rb) {
+        this.rb = rb;
         previous.setText(rb.getString("previousButton"));
         next.setText(rb.getString("nextButton"));
+        cancel.setText(rb.getString("loading.cancel"));
+        if (imagesFound >= 0) {
+            setLoadingProgress(imagesFound);
+        }
     }
 
     /**
      * Class to draw and display image. Image is drawn centered and resized if
-     * needed.
+     * needed. Resized image is a copy made in background, once per panel
+     * size, so painting only copies pixels.
      */
     private class Tela extends JPanel {
 
@@ -146,6 +250,28 @@ public class ImageViewer extends JPanel {
          */
         private Image image;
 
+        /**
+         * Copy of image scaled to fit panel, or null.
+         */
+        private BufferedImage scaled;
+
+        /**
+         * Number of scaled copy requested last. Changed only on event
+         * dispatch thread; scaling thread reads it to skip requests made
+         * obsolete while panel was resized.
+         */
+        private volatile int scaleRequest;
+
+        /**
+         * Size of scaled copy requested last, or null.
+         */
+        private Dimension requestedSize;
+
+        /**
+         * Message drawn instead of image, or null.
+         */
+        private String message;
+
         /**
          * Constructor. Makes a new Tela.
          */
@@ -161,12 +287,66 @@ public class ImageViewer extends JPanel {
          */
         void setImage(Image image) {
             this.image = image;
+            scaled = null;
+            requestedSize = null;
+            scaleRequest++;
+            repaint();
+        }
+
+        /**
+         * Starts making a copy of image scaled to a size, in background. When
+         * it's done, panel is repainted with it, if image and size didn't
+         * change meanwhile.
+         * @param source image to scale.
+         * @param size size of scaled copy.
+         */
+        private void requestScaled(BufferedImage source, Dimension size) {
+            if (size.equals(requestedSize)) {
+                return;
+            }
+            requestedSize = size;
+            int request = ++scaleRequest;
+            SCALER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (request != scaleRequest) {
+                        return;
+                    }
+                    BufferedImage result = ThumbnailCache.scale(source, size.width, size.height);
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (request == scaleRequest) {
+                                scaled = result;
+                                repaint();
+                            }
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * Sets message to be displayed instead of image.
+         * @param message new message to be displayed, or null.
+         */
+        void setMessage(String message) {
+            this.message = message;
             repaint();
         }
 
         @Override
         public void paintComponent(Graphics g) {
             super.paintComponent(g);
+            if (message != null) {
+                g.setFont(new Font("Sans_Serif", Font.BOLD, 16));
+                FontMetrics fm = g.getFontMetrics();
+                int x = (this.getWidth() - fm.stringWidth(message)) / 2;
+                int y = this.getHeight() / 2;
+                g.setColor(Color.BLACK);
+                g.drawString(message, x, y);
+                return;
+            }
             if (image == null) {
                 return;
             }
@@ -206,7 +386,16 @@ public class ImageViewer extends JPanel {
 
             int x = (ws - wi) / 2;
             int y = (hs - hi) / 2;
-            g.drawImage(image, x, y, wi, hi, this);
+            if (wi == image.getWidth(this) && hi == image.getHeight(this)) {
+                g.drawImage(image, x, y, this);
+            } else if (scaled != null && scaled.getWidth() == wi && scaled.getHeight() == hi) {
+                g.drawImage(scaled, x, y, this);
+            } else {
+                g.drawImage(scaled != null ? scaled : image, x, y, wi, hi, this);
+                if (image instanceof BufferedImage && wi > 0 && hi > 0) {
+                    requestScaled((BufferedImage) image, new Dimension(wi, hi));
+                }
+            }
         }
 
     }
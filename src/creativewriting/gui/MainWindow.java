@@ -1,5 +1,6 @@
 package creativewriting.gui;
 
+import creativewriting.textmodel.LoadingListener;
 import creativewriting.textmodel.TextModel;
 import java.awt.Dimension;
 import java.awt.GridLayout;
@@ -17,6 +18,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
 import javax.swing.ImageIcon;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -25,7 +29,7 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.swing.SwingUtilities;
 import org.xml.sax.SAXException;
 
 /**
@@ -44,6 +48,11 @@ public class MainWindow extends JFrame {
      * Text editor to write text.
      */
     private final TextEditor textEditor;
+
+    /**
+     * Periodic saving of user's work.
+     */
+    private final Autosave autosave;
     
     /**
      * TextModel used by this window.
@@ -70,6 +79,21 @@ public class MainWindow extends JFrame {
      */
     private String defaultLanguage = "";
 
+    /**
+     * Listener to show image library indexing progress in image viewer.
+     */
+    private final LoadingListener loadingProgress = new LoadingListener() {
+        @Override
+        public void imagesFound(int count) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    imageViewer.setLoadingProgress(count);
+                }
+            });
+        }
+    };
+
     /**
      * Constructor. Makes a new main window.
      */
@@ -81,6 +105,7 @@ public class MainWindow extends JFrame {
 
         imageViewer = new ImageViewer(rb);
         textEditor = new TextEditor(rb);
+        autosave = new Autosave(textEditor, Autosave.DEFAULT_INTERVAL);
 
         fc = new JFileChooser();
         
@@ -180,8 +205,7 @@ public class MainWindow extends JFrame {
             _save.addActionListener(new ActionListener() {
                 @Override
                 public void actionPerformed(ActionEvent e) {
-                    textModel.setTitle(textEditor.getTitle());
-                    textModel.setText(textEditor.getText());
+                    textEditor.applyChanges(textModel);
                     textModel.save();
                 }
             });
@@ -191,15 +215,14 @@ public class MainWindow extends JFrame {
             _saveAs.addActionListener(new ActionListener() {
                 @Override
                 public void actionPerformed(ActionEvent e) {
-                    textModel.setTitle(textEditor.getTitle());
-                    textModel.setText(textEditor.getText());
+                    textEditor.applyChanges(textModel);
                     fc.setDialogTitle(rb.getString("SaveAs"));
                     int option = fc.showSaveDialog(fc);
                     if (option == JFileChooser.APPROVE_OPTION) {
                         File out = fc.getSelectedFile();
                         
                         String name = out.getAbsolutePath();
-                        if(!name.endsWith(".xml")){
+                        if(!TextModel.isSessionFileName(name)){
                             name += ".xml";
                             out = new File(name);
                         }
@@ -228,8 +251,7 @@ public class MainWindow extends JFrame {
             _savetxt.addActionListener(new ActionListener() {
                 @Override
                 public void actionPerformed(ActionEvent e) {
-                    textModel.setTitle(textEditor.getTitle());
-                    textModel.setText(textEditor.getText());
+                    textEditor.applyChanges(textModel);
                     fc.setDialogTitle(rb.getString("SaveTxt"));
                     int option = fc.showSaveDialog(fc);
                     if (option == JFileChooser.APPROVE_OPTION) {
@@ -277,15 +299,10 @@ public class MainWindow extends JFrame {
                     if(textModel != null){
                         confirmSaveWork();
                     }
-                    TextModel model = NewTextDialog.showDialog(MainWindow.this, rb);
+                    CompletableFuture<TextModel> model = NewTextDialog.showDialog(
+                            MainWindow.this, rb, loadingProgress);
                     if (model != null) {
-                        textModel = model;
-                        imageViewer.setTextModel(textModel);
-                        textEditor.clear();
-                        setWindowTitle();
-                        _save.setEnabled(true);
-                        _saveAs.setEnabled(true);
-                        _savetxt.setEnabled(true);
+                        loadTextModel(model, null);
                     }
                 }
             });
@@ -298,48 +315,8 @@ public class MainWindow extends JFrame {
                     int option = fc.showOpenDialog(MainWindow.this);
                     if(option == JFileChooser.APPROVE_OPTION){
                         File in = fc.getSelectedFile();
-                        TextModel model = null;
-                        try{
-                            model = new TextModel(in);
-                        } catch (ParserConfigurationException | SAXException ex) {
-                            Object[] args = {in.getName()};
-                            MessageFormat formatter = new MessageFormat(rb.getString("open.parseError"));
-                            JOptionPane.showMessageDialog(MainWindow.this, 
-                                    formatter.format(args),
-                                    rb.getString("open.errorTitle"), 
-                                    JOptionPane.ERROR_MESSAGE);
-                            return;
-                        } catch(IllegalStateException ise){
-                            Object[] args = {in.getName(), ise.getLocalizedMessage()};
-                            MessageFormat formatter = new MessageFormat(rb.getString("open.stateError"));
-                            JOptionPane.showMessageDialog(MainWindow.this, 
-                                    formatter.format(args),
-                                    rb.getString("open.errorTitle"), 
-                                    JOptionPane.ERROR_MESSAGE);
-                            return;                            
-                        } catch (IOException ex) {
-                            Object[] args = {in.getName()};
-                            MessageFormat formatter = new MessageFormat(rb.getString("open.ioError"));
-                            JOptionPane.showMessageDialog(MainWindow.this, 
-                                    formatter.format(args),
-                                    rb.getString("open.errorTitle"), 
-                                    JOptionPane.ERROR_MESSAGE);
-                            return;
-                        }
-                        
-                        if(textModel != null){
-                            confirmSaveWork();
-                        }
-                        
-                        textModel = model;
-                        imageViewer.setTextModel(textModel);
-                        textEditor.setTitle(textModel.getTitle());
-                        textEditor.setText(textModel.getText());
-                        setWindowTitle();
-                        _save.setEnabled(true);
-                        _saveAs.setEnabled(true);
-                        _savetxt.setEnabled(true);
-                        textModel.save();
+                        loadTextModel(TextModel.open(in, ImageViewer.getImageSizeHint(),
+                                loadingProgress), in);
                     }
 
                 }
@@ -415,6 +392,120 @@ public class MainWindow extends JFrame {
             changeLanguage(defaultLanguage);
         }
 
+        /**
+         * Waits, out of event dispatch thread, for a TextModel made in
+         * background, then displays it.
+         * @param model future TextModel.
+         * @param in xml file from which TextModel is read, or null if
+         * TextModel is a new one.
+         */
+        private void loadTextModel(CompletableFuture<TextModel> model, File in) {
+            model.whenComplete(new BiConsumer<TextModel, Throwable>() {
+                @Override
+                public void accept(TextModel result, Throwable ex) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (ex != null) {
+                                showOpenError(in, ex);
+                            } else {
+                                showTextModel(result, in != null);
+                            }
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * Displays text of a TextModel just made, while its image library is
+         * indexed. Indexing of the TextModel it replaces is cancelled.
+         * @param model TextModel to display.
+         * @param opened true if TextModel was read from xml file.
+         */
+        private void showTextModel(TextModel model, boolean opened) {
+            if (opened && textModel != null) {
+                confirmSaveWork();
+            }
+            if (textModel != null && textModel != model) {
+                textModel.cancelLoading();
+            }
+
+            textModel = model;
+            imageViewer.showLoading(textModel);
+            if (opened) {
+                textEditor.setTextModel(textModel);
+            } else {
+                textEditor.clear();
+            }
+            autosave.setTextModel(textModel);
+            setWindowTitle();
+            _save.setEnabled(true);
+            _saveAs.setEnabled(true);
+            _savetxt.setEnabled(true);
+
+            model.getLibraryLoading().whenComplete(new BiConsumer<Void, Throwable>() {
+                @Override
+                public void accept(Void result, Throwable ex) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            showImages(model, opened, ex);
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * Displays images of a TextModel whose image library was indexed.
+         * @param model TextModel to display.
+         * @param opened true if TextModel was read from xml file.
+         * @param ex error while image library was indexed, or null.
+         */
+        private void showImages(TextModel model, boolean opened, Throwable ex) {
+            if (textModel != model) {
+                return;
+            }
+            Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+            if (cause instanceof IllegalStateException) {
+                Object[] args = {model.getFileName(), cause.getLocalizedMessage()};
+                MessageFormat formatter = new MessageFormat(rb.getString("open.stateError"));
+                JOptionPane.showMessageDialog(MainWindow.this,
+                        formatter.format(args),
+                        rb.getString("open.errorTitle"),
+                        JOptionPane.ERROR_MESSAGE);
+            }
+            imageViewer.setTextModel(model);
+            if (opened && cause == null) {
+                model.save();
+            }
+        }
+
+        /**
+         * Shows error that happened while a TextModel was read.
+         * @param in xml file from which TextModel was read.
+         * @param ex error.
+         */
+        private void showOpenError(File in, Throwable ex) {
+            Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+            String name = in == null ? "" : in.getName();
+            String message;
+            if (cause instanceof SAXException) {
+                message = rb.getString("open.parseError");
+            } else if (cause instanceof IllegalStateException) {
+                message = rb.getString("open.stateError");
+            } else {
+                message = rb.getString("open.ioError");
+            }
+            Object[] args = {name, cause.getLocalizedMessage()};
+            MessageFormat formatter = new MessageFormat(message);
+            JOptionPane.showMessageDialog(MainWindow.this, 
+                    formatter.format(args),
+                    rb.getString("open.errorTitle"), 
+                    JOptionPane.ERROR_MESSAGE);
+        }
+
         /**
          * Changes language to display button labels.
          * @param language language id.
@@ -473,8 +564,7 @@ public class MainWindow extends JFrame {
                 rb.getString("saveMessage"),
                 rb.getString("saveTitle"), JOptionPane.YES_NO_OPTION);
         if(op == JOptionPane.YES_OPTION){
-            textModel.setTitle(textEditor.getTitle());
-            textModel.setText(textEditor.getText());
+            textEditor.applyChanges(textModel);
             textModel.save();
         }
     }
@@ -1,5 +1,6 @@
 package creativewriting.gui;
 
+import creativewriting.textmodel.LoadingListener;
 import creativewriting.textmodel.TextModel;
 import java.awt.FlowLayout;
 import java.awt.Frame;
@@ -8,6 +9,7 @@ import java.awt.event.ActionListener;
 import java.io.File;
 import java.text.MessageFormat;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.DefaultListModel;
@@ -36,13 +38,17 @@ import javax.swing.event.ListSelectionListener;
 public class NewTextDialog extends JDialog {
 
     /**
-     * Shows this dialog window.
+     * Shows this dialog window. TextModel is made in background, so this
+     * method returns as soon as user closes dialog window.
      * @param parent parent frame.
      * @param rb ResourceBundle that defines language to display this dialog.
-     * @return TextModel created by this dialog window.
+     * @param listener listener to report image library indexing progress.
+     * @return TextModel created by this dialog window, or null if user
+     * cancelled.
      */
-    public static TextModel showDialog(Frame parent, ResourceBundle rb) {
-        NewTextDialog dialog = new NewTextDialog(parent, rb);
+    public static CompletableFuture<TextModel> showDialog(Frame parent, ResourceBundle rb,
+            LoadingListener listener) {
+        NewTextDialog dialog = new NewTextDialog(parent, rb, listener);
         dialog.setVisible(true);
         return dialog.getTextModel();
     }
@@ -55,15 +61,16 @@ public class NewTextDialog extends JDialog {
     /**
      * TextModel returned by this dialog window.
      */
-    private TextModel textModel;
+    private CompletableFuture<TextModel> textModel;
 
     /**
      * Constructor. Makes a new dialog window. Can't be directly called, use
      * {@code NewTextDialog.showDialog()} instead.
      * @param parent parent frame.
      * @param rb ResourceBundle that defines language to display this dialog.
+     * @param listener listener to report image library indexing progress.
      */
-    private NewTextDialog(Frame parent, ResourceBundle rb) {
+    private NewTextDialog(Frame parent, ResourceBundle rb, LoadingListener listener) {
         super(parent, rb.getString("newDialog.title"), true);
 
         JFileChooser fc = new JFileChooser();
@@ -114,7 +121,7 @@ public class NewTextDialog extends JDialog {
                     file = fc.getSelectedFile();
                     String name = file.getAbsolutePath();
 
-                    if (!name.endsWith(".xml")) {
+                    if (!TextModel.isSessionFileName(name)) {
                         name += ".xml";
                         file = new File(name);
                     }
@@ -230,7 +237,7 @@ public class NewTextDialog extends JDialog {
             public void actionPerformed(ActionEvent e) {
                 if (file == null) {
                     String name = textField.getText().trim();
-                    if (!name.endsWith(".xml")) {
+                    if (!TextModel.isSessionFileName(name)) {
                         name += ".xml";
                     }
                     file = new File(name);
@@ -239,8 +246,8 @@ public class NewTextDialog extends JDialog {
                 for (int i = 0; i < listModel.getSize(); i++) {
                     paths[i] = listModel.get(i).toString();
                 }
-                textModel = new TextModel(file, paths, includeSubPaths.isSelected(),
-                        mainLibrary.isSelected());
+                textModel = TextModel.create(file, paths, includeSubPaths.isSelected(),
+                        mainLibrary.isSelected(), ImageViewer.getImageSizeHint(), listener);
                 dispose();
             }
         });
@@ -263,7 +270,7 @@ public class NewTextDialog extends JDialog {
      * Returns text model created by this dialog window.
      * @return text model.
      */
-    private TextModel getTextModel() {
+    private CompletableFuture<TextModel> getTextModel() {
         return textModel;
     }
 }
@@ -1,24 +1,42 @@
 package creativewriting.gui;
 
+import creativewriting.textmodel.TextModel;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.Insets;
+import java.awt.Point;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.ResourceBundle;
 import javax.swing.BorderFactory;
+import javax.swing.BoundedRangeModel;
 import javax.swing.BoxLayout;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
 
 /**
- * A text editor.
+ * A text editor. Text of a TextModel is loaded in pages of paragraphs: only
+ * paragraphs around visible part of text are kept in text area, and
+ * paragraphs are loaded and unloaded as user scrolls.
  *
  * @author Thiago
  */
@@ -44,6 +62,50 @@ public class TextEditor extends JPanel {
      */
     private final JLabel label;
 
+    /**
+     * Index of first line changed since text was last synchronized with a
+     * TextModel, or {@code Integer.MAX_VALUE} if no line changed.
+     */
+    private int dirtyFrom;
+
+    /**
+     * Number of lines, at text end, not changed since text was last
+     * synchronized with a TextModel.
+     */
+    private int cleanSuffix;
+
+    /**
+     * Number of lines when text was last synchronized with a TextModel.
+     */
+    private int syncedLines;
+
+    /**
+     * Number of paragraphs loaded at once when user scrolls.
+     */
+    static final int PAGE_SIZE = 500;
+
+    /**
+     * Maximum number of pages kept in text area.
+     */
+    private static final int MAX_PAGES = 4;
+
+    /**
+     * TextModel whose paragraphs are loaded in pages, or null if whole text
+     * is in text area.
+     */
+    private TextModel pagedModel;
+
+    /**
+     * Index, in TextModel, of paragraph in first line of text area.
+     */
+    private int firstParagraph;
+
+    /**
+     * Defines if pages are being loaded or unloaded, so changes in text area
+     * aren't changes made by user.
+     */
+    private boolean paging;
+
     /**
      * Constructor. Makes a new text editor.
      * @param rb ResourceBundle that defines language to display label title.
@@ -70,11 +132,53 @@ public class TextEditor extends JPanel {
         textArea.setLineWrap(true);
 
         textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+        textArea.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                if (paging) {
+                    return;
+                }
+                Element root = e.getDocument().getDefaultRootElement();
+                int start = root.getElementIndex(e.getOffset());
+                int end = root.getElementIndex(e.getOffset() + e.getLength());
+                markDirty(start, root.getElementCount() - 1 - end);
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                if (paging) {
+                    return;
+                }
+                Element root = e.getDocument().getDefaultRootElement();
+                int line = root.getElementIndex(e.getOffset());
+                markDirty(line, root.getElementCount() - 1 - line);
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        markClean();
         scroller = new JScrollPane(textArea);
         scroller.setBorder(BorderFactory.createCompoundBorder(
                 BorderFactory.createEmptyBorder(6, 0, 0, 0),
                 BorderFactory.createLineBorder(Color.BLACK)));
 
+        scroller.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener() {
+            @Override
+            public void adjustmentValueChanged(AdjustmentEvent e) {
+                if (pagedModel == null || paging) {
+                    return;
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        loadPages();
+                    }
+                });
+            }
+        });
+
         textField.setEnabled(false);
         textArea.setEnabled(false);
         add(titlePane, BorderLayout.NORTH);
@@ -109,14 +213,6 @@ public class TextEditor extends JPanel {
         return textField.getText();
     }
 
-    /**
-     * Returns text content.
-     * @return text content.
-     */
-    public String getText() {
-        return textArea.getText();
-    }
-
     /**
      * Sets text title.
      * @param title new text title.
@@ -127,22 +223,233 @@ public class TextEditor extends JPanel {
     }
 
     /**
-     * Sets text content.
-     * @param text new text content.
+     * Sets title and text content from a TextModel. Only first pages of text
+     * are loaded; other pages are loaded as user scrolls.
+     * @param textModel TextModel to display.
      */
-    public void setText(String text) {
+    public void setTextModel(TextModel textModel) {
+        setTitle(textModel.getTitle());
+        pagedModel = textModel;
+        firstParagraph = 0;
+        int end = Math.min(textModel.getParagraphCount(), 2 * PAGE_SIZE);
         textArea.setEnabled(true);
-        textArea.setText(text);
+        paging = true;
+        try {
+            textArea.setText(join(loadParagraphs(textModel, 0, end), false));
+        } finally {
+            paging = false;
+        }
+        textArea.setCaretPosition(0);
+        markClean();
     }
 
     /**
      * Clears text title and text content.
      */
     public void clear() {
+        pagedModel = null;
+        firstParagraph = 0;
         textField.setEnabled(true);
         textArea.setEnabled(true);
         textField.setText("");
         textArea.setText("");
+        markClean();
+    }
+
+    /**
+     * Loads next or previous page of paragraphs, if visible part of text is
+     * close to end or start of text area. Changes are copied to TextModel
+     * before a page is loaded.
+     */
+    private void loadPages() {
+        if (pagedModel == null || paging) {
+            return;
+        }
+        BoundedRangeModel bar = scroller.getVerticalScrollBar().getModel();
+        int extent = bar.getExtent();
+        if (bar.getValue() + 2 * extent >= bar.getMaximum()) {
+            applyChanges(pagedModel);
+            int end = firstParagraph + lineCount();
+            int count = pagedModel.getParagraphCount();
+            if (end < count) {
+                int last = Math.min(count, end + PAGE_SIZE);
+                changePages(textArea.getDocument().getLength(),
+                        "\n" + join(loadParagraphs(pagedModel, end, last), false), true);
+            }
+        } else if (bar.getValue() <= extent && firstParagraph > 0) {
+            applyChanges(pagedModel);
+            int start = Math.max(0, firstParagraph - PAGE_SIZE);
+            String page = join(loadParagraphs(pagedModel, start, firstParagraph), true);
+            changePages(0, page, false);
+            firstParagraph = start;
+        }
+    }
+
+    /**
+     * Inserts a page in text area, and removes a page at the other end if
+     * text area holds too many pages. Visible part of text doesn't move.
+     * @param offset where page is inserted.
+     * @param page text of page.
+     * @param atEnd true if page is inserted at end, false if at start.
+     */
+    private void changePages(int offset, String page, boolean atEnd) {
+        JViewport viewport = scroller.getViewport();
+        int top = textArea.viewToModel2D(viewport.getViewPosition());
+        Document doc = textArea.getDocument();
+        paging = true;
+        try {
+            doc.insertString(offset, page, null);
+            if (!atEnd) {
+                top += page.length();
+            }
+            Element root = doc.getDefaultRootElement();
+            int lines = root.getElementCount();
+            if (lines > MAX_PAGES * PAGE_SIZE) {
+                if (atEnd) {
+                    int removed = root.getElement(PAGE_SIZE).getStartOffset();
+                    doc.remove(0, removed);
+                    firstParagraph += PAGE_SIZE;
+                    top -= removed;
+                } else {
+                    int start = root.getElement(lines - PAGE_SIZE).getStartOffset() - 1;
+                    doc.remove(start, doc.getLength() - start);
+                }
+            }
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            paging = false;
+        }
+        markClean();
+
+        int visible = Math.max(0, top);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Rectangle2D r = textArea.modelToView2D(
+                            Math.min(visible, textArea.getDocument().getLength()));
+                    if (r != null) {
+                        viewport.setViewPosition(new Point(0, (int) r.getY()));
+                    }
+                } catch (BadLocationException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a range of paragraphs of a TextModel, to be loaded in text
+     * area. Each line of text area is a paragraph, so paragraphs with line
+     * breaks are first split in TextModel, one paragraph per line.
+     * @param textModel TextModel whose paragraphs are loaded.
+     * @param from index of first paragraph.
+     * @param to index after last paragraph.
+     * @return paragraphs loaded, one per line; there are more than
+     * <i>to</i> - <i>from</i> if some paragraph was split.
+     */
+    private static List<String> loadParagraphs(TextModel textModel, int from, int to) {
+        List<String> paragraphs = new ArrayList<>(textModel.getParagraphs(from, to));
+        boolean split = false;
+        for (int i = paragraphs.size() - 1; i >= 0; i--) {
+            String paragraph = paragraphs.get(i);
+            if (paragraph.indexOf('\n') >= 0) {
+                paragraphs.remove(i);
+                paragraphs.addAll(i, Arrays.asList(paragraph.split("\r?\n", -1)));
+                split = true;
+            }
+        }
+        if (split) {
+            textModel.replaceParagraphs(from, to, paragraphs);
+        }
+        return paragraphs;
+    }
+
+    /**
+     * Joins paragraphs in a text, separated by line breaks.
+     * @param paragraphs paragraphs to join.
+     * @param trailing if true, add a line break after last paragraph too.
+     * @return text with paragraphs.
+     */
+    private static String join(List<String> paragraphs, boolean trailing) {
+        StringBuilder sb = new StringBuilder();
+        for (String paragraph : paragraphs) {
+            sb.append(paragraph).append('\n');
+        }
+        if (!trailing && sb.length() > 0) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns number of lines in text area.
+     * @return number of lines.
+     */
+    private int lineCount() {
+        return textArea.getDocument().getDefaultRootElement().getElementCount();
+    }
+
+    /**
+     * Copies to a TextModel title and lines changed since text was last
+     * synchronized. Each line is a paragraph of TextModel. Text must have
+     * been loaded from this TextModel, or cleared for it. If text is loaded
+     * in pages, only lines of loaded pages can have changed.
+     * @param textModel TextModel to update.
+     */
+    public void applyChanges(TextModel textModel) {
+        textModel.setTitle(getTitle());
+        if (!isModified()) {
+            return;
+        }
+        Document doc = textArea.getDocument();
+        Element root = doc.getDefaultRootElement();
+        int lineCount = root.getElementCount();
+        int from = dirtyFrom;
+        int oldEnd = Math.max(from, syncedLines - cleanSuffix);
+        int newEnd = Math.max(from, lineCount - cleanSuffix);
+
+        ArrayList<String> lines = new ArrayList<>();
+        try {
+            for (int i = from; i < newEnd; i++) {
+                Element line = root.getElement(i);
+                int start = line.getStartOffset();
+                lines.add(doc.getText(start, line.getEndOffset() - start - 1));
+            }
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        textModel.replaceParagraphs(firstParagraph + from, firstParagraph + oldEnd, lines);
+        markClean();
+    }
+
+    /**
+     * Returns if text changed since it was last synchronized with a
+     * TextModel.
+     * @return true if some line changed.
+     */
+    public boolean isModified() {
+        return dirtyFrom != Integer.MAX_VALUE;
+    }
+
+    /**
+     * Records that some lines changed.
+     * @param start index of first line changed.
+     * @param suffix number of lines, at text end, after last line changed.
+     */
+    private void markDirty(int start, int suffix) {
+        dirtyFrom = Math.min(dirtyFrom, start);
+        cleanSuffix = Math.min(cleanSuffix, suffix);
+    }
+
+    /**
+     * Records that text is synchronized with a TextModel.
+     */
+    private void markClean() {
+        syncedLines = textArea.getDocument().getDefaultRootElement().getElementCount();
+        dirtyFrom = Integer.MAX_VALUE;
+        cleanSuffix = syncedLines;
     }
     
     /**
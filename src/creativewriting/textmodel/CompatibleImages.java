@@ -0,0 +1,79 @@
+package creativewriting.textmodel;
+
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Graphics2D;
+import java.awt.HeadlessException;
+import java.awt.image.BufferedImage;
+
+/**
+ * Converts decoded images to the pixel format of the screen. Images decoded
+ * by ImageIO often have custom or indexed formats, which Java2D must convert
+ * each time they are drawn; a compatible image is drawn with a plain copy,
+ * and Java2D can keep it in video memory. Nothing is converted when there is
+ * no screen.
+ *
+ * @author Thiago
+ */
+class CompatibleImages {
+
+    /**
+     * Constructor. Can't be called, this class has only static methods.
+     */
+    private CompatibleImages() {
+    }
+
+    /**
+     * Returns an image with the pixel format of the screen, with the same
+     * content as an image.
+     *
+     * @param image decoded image, or null.
+     * @return <i>image</i>, if it's null, already compatible or there is no
+     * screen; a compatible copy of <i>image</i> otherwise.
+     */
+    static BufferedImage convert(BufferedImage image) {
+        GraphicsConfiguration config = ConfigurationHolder.CONFIGURATION;
+        if (image == null || config == null) {
+            return image;
+        }
+        int transparency = image.getTransparency();
+        if (image.getColorModel().equals(config.getColorModel(transparency))) {
+            return image;
+        }
+        BufferedImage compatible = config.createCompatibleImage(image.getWidth(),
+                image.getHeight(), transparency);
+        Graphics2D g = compatible.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return compatible;
+    }
+
+    /**
+     * Holder of screen configuration, looked up when first needed.
+     */
+    private static class ConfigurationHolder {
+
+        /**
+         * Configuration of default screen, or null if there is no screen.
+         */
+        static final GraphicsConfiguration CONFIGURATION = lookup();
+
+        /**
+         * Looks up configuration of default screen.
+         *
+         * @return configuration of default screen, or null if there is no
+         * screen.
+         */
+        private static GraphicsConfiguration lookup() {
+            if (GraphicsEnvironment.isHeadless()) {
+                return null;
+            }
+            try {
+                return GraphicsEnvironment.getLocalGraphicsEnvironment()
+                        .getDefaultScreenDevice().getDefaultConfiguration();
+            } catch (HeadlessException e) {
+                return null;
+            }
+        }
+    }
+}
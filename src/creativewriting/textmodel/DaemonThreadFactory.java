@@ -0,0 +1,50 @@
+package creativewriting.textmodel;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Factory of daemon threads, so background work never keeps application
+ * running.
+ *
+ * @author Thiago
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+    /**
+     * Name of threads.
+     */
+    private final String name;
+
+    /**
+     * Priority of threads.
+     */
+    private final int priority;
+
+    /**
+     * Constructor. Makes a factory of daemon threads with normal priority.
+     *
+     * @param name name of threads.
+     */
+    public DaemonThreadFactory(String name) {
+        this(name, Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * Constructor. Makes a factory of daemon threads.
+     *
+     * @param name name of threads.
+     * @param priority priority of threads.
+     */
+    public DaemonThreadFactory(String name, int priority) {
+        this.name = name;
+        this.priority = priority;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        thread.setPriority(priority);
+        return thread;
+    }
+}
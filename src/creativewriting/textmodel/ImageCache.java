@@ -0,0 +1,215 @@
+package creativewriting.textmodel;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of decoded images, keyed by image path. Cache keeps images up to a
+ * memory budget, evicting least recently used images first. Images are held by
+ * soft references, so garbage collector can still reclaim them if memory runs
+ * low.
+ *
+ * @author Thiago
+ */
+public class ImageCache {
+
+    /**
+     * Cached images, in access order: least recently used image comes first.
+     */
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Maximum memory, in bytes, to be used by cached images.
+     */
+    private long budget;
+
+    /**
+     * Memory, in bytes, used by cached images.
+     */
+    private long usedBytes;
+
+    /**
+     * Number of lookups that found image in cache.
+     */
+    private long hits;
+
+    /**
+     * Number of lookups that didn't find image in cache.
+     */
+    private long misses;
+
+    /**
+     * Constructor. Makes a new empty cache.
+     *
+     * @param budget maximum memory, in bytes, to be used by cached images.
+     */
+    public ImageCache(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Negative cache budget: " + budget);
+        }
+        this.budget = budget;
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns cached image.
+     *
+     * @param path image path.
+     * @return cached image, or null if image isn't in cache.
+     */
+    public synchronized BufferedImage get(String path) {
+        Entry entry = entries.get(path);
+        BufferedImage image = null;
+        if (entry != null) {
+            image = entry.image.get();
+            if (image == null) {
+                entries.remove(path);
+                usedBytes -= entry.size;
+            }
+        }
+        if (image == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return image;
+    }
+
+    /**
+     * Stores an image in cache. Images bigger than cache budget are not stored.
+     *
+     * @param path image path.
+     * @param image decoded image.
+     */
+    public synchronized void put(String path, BufferedImage image) {
+        Entry old = entries.remove(path);
+        if (old != null) {
+            usedBytes -= old.size;
+        }
+        long size = sizeOf(image);
+        if (size > budget) {
+            return;
+        }
+        entries.put(path, new Entry(image, size));
+        usedBytes += size;
+        evict();
+    }
+
+    /**
+     * Removes all images from cache. Hit and miss counts are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * Sets maximum memory to be used by cached images, evicting images if
+     * needed.
+     *
+     * @param budget maximum memory, in bytes.
+     */
+    public synchronized void setBudget(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Negative cache budget: " + budget);
+        }
+        this.budget = budget;
+        evict();
+    }
+
+    /**
+     * Returns maximum memory to be used by cached images.
+     *
+     * @return maximum memory, in bytes.
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns memory used by cached images.
+     *
+     * @return memory used, in bytes.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Returns number of lookups that found image in cache.
+     *
+     * @return number of cache hits.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns number of lookups that didn't find image in cache.
+     *
+     * @return number of cache misses.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ImageCache[images=" + entries.size() + ", used=" + usedBytes
+                + ", budget=" + budget + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+
+    /**
+     * Removes least recently used images until memory used fits budget.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (usedBytes > budget && it.hasNext()) {
+            usedBytes -= it.next().getValue().size;
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns memory used by an image's pixel data.
+     *
+     * @param image image to measure.
+     * @return memory used, in bytes.
+     */
+    static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        long bits = (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType());
+        return bits / 8;
+    }
+
+    /**
+     * Cached image with its size.
+     */
+    private static class Entry {
+
+        /**
+         * Cached image.
+         */
+        private final SoftReference<BufferedImage> image;
+
+        /**
+         * Memory used by image, in bytes.
+         */
+        private final long size;
+
+        /**
+         * Constructor. Makes a new Entry.
+         * @param image cached image.
+         * @param size memory used by image, in bytes.
+         */
+        Entry(BufferedImage image, long size) {
+            this.image = new SoftReference<>(image);
+            this.size = size;
+        }
+    }
+}
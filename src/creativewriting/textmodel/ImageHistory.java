@@ -0,0 +1,84 @@
+package creativewriting.textmodel;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Ordered list of paths of images used in creative writing. Paths are stored
+ * in an array, so an image can be found by its index in constant time, and in
+ * a hash set, so checking if an image was already used takes constant time.
+ *
+ * @author Thiago
+ */
+class ImageHistory {
+
+    /**
+     * Image paths, in the order images were used.
+     */
+    private String[] paths;
+
+    /**
+     * Number of images in history.
+     */
+    private int size;
+
+    /**
+     * Image paths, to check if an image was already used.
+     */
+    private final HashSet<String> used;
+
+    /**
+     * Constructor. Makes a new empty history.
+     */
+    ImageHistory() {
+        paths = new String[16];
+        size = 0;
+        used = new HashSet<>();
+    }
+
+    /**
+     * Adds an image path at history end.
+     *
+     * @param path image path.
+     */
+    void add(String path) {
+        if (size == paths.length) {
+            paths = Arrays.copyOf(paths, paths.length * 2);
+        }
+        paths[size++] = path;
+        used.add(path);
+    }
+
+    /**
+     * Returns path of an image in history.
+     *
+     * @param i image index.
+     * @return path of image with index <i>i</i>.
+     */
+    String get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Item position out of range: " + i
+                    + ", list length: " + size);
+        }
+        return paths[i];
+    }
+
+    /**
+     * Checks if an image is in history.
+     *
+     * @param path image path.
+     * @return true if image was already used.
+     */
+    boolean contains(String path) {
+        return used.contains(path);
+    }
+
+    /**
+     * Returns number of images in history.
+     *
+     * @return number of images in history.
+     */
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,337 @@
+package creativewriting.textmodel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent index of image files found in an image source directory. Index
+ * records, for each directory read, its modification time, its image files,
+ * with their dimensions and format, and its subdirectories. A directory whose
+ * modification time didn't change since last scan doesn't need to be read
+ * again: its content is taken from index.
+ * <p>
+ * Index files are stored in user's cache directory, one file per image source
+ * directory.
+ *
+ * @author Thiago
+ */
+class LibraryIndex {
+
+    /**
+     * Directory where Creative Writing stores cache files.
+     */
+    static final Path CACHE_ROOT = Paths.get(System.getProperty("user.home"), ".creativewriting");
+
+    /**
+     * Directory where index files are stored.
+     */
+    private static final Path INDEX_DIR = CACHE_ROOT.resolve("index");
+
+    /**
+     * Number written at index file start, to recognize index files.
+     */
+    private static final int MAGIC = 0x43574958;
+
+    /**
+     * Index file format version.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Image source directory indexed.
+     */
+    private final Path root;
+
+    /**
+     * Directories read in last scan, keyed by directory path.
+     */
+    private final Map<String, Directory> previous;
+
+    /**
+     * Directories found in current scan, keyed by directory path.
+     */
+    private final ConcurrentHashMap<String, Directory> current;
+
+    /**
+     * Defines if some directory was read from file system in current scan.
+     */
+    private volatile boolean changed;
+
+    /**
+     * Constructor. Makes a new index.
+     *
+     * @param root image source directory indexed.
+     * @param previous directories read in last scan.
+     */
+    private LibraryIndex(Path root, Map<String, Directory> previous) {
+        this.root = root;
+        this.previous = previous;
+        current = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Loads index of an image source directory. If there is no index file, or
+     * it can't be read or is damaged, returns an empty index, so all
+     * directories are read from file system.
+     *
+     * @param root image source directory.
+     * @return index of <i>root</i>.
+     */
+    static LibraryIndex load(Path root) {
+        Map<String, Directory> dirs = new HashMap<>();
+        Path indexFile = indexFile(root);
+        if (Files.isRegularFile(indexFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(indexFile)))) {
+                long limit = Files.size(indexFile);
+                if (in.readInt() == MAGIC && in.readInt() == VERSION
+                        && in.readUTF().equals(root.toString())) {
+                    int count = readCount(in, limit);
+                    for (int i = 0; i < count; i++) {
+                        String path = in.readUTF();
+                        dirs.put(path, Directory.read(in, limit));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                dirs.clear();
+            }
+        }
+        return new LibraryIndex(root, dirs);
+    }
+
+    /**
+     * Returns directory content recorded in last scan, if directory wasn't
+     * modified since then.
+     *
+     * @param dir directory path.
+     * @param modified directory modification time, in milliseconds.
+     * @return recorded directory content, or null if directory must be read.
+     */
+    Directory lookup(Path dir, long modified) {
+        Directory entry = previous.get(dir.toString());
+        if (entry != null && entry.modified == modified) {
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Returns directory content recorded in last scan, even if directory was
+     * modified since then.
+     *
+     * @param dir directory path.
+     * @return recorded directory content, or null if directory wasn't read in
+     * last scan.
+     */
+    Directory recorded(Path dir) {
+        return previous.get(dir.toString());
+    }
+
+    /**
+     * Records directory content found in current scan.
+     *
+     * @param dir directory path.
+     * @param entry directory content.
+     * @param read true if directory was read from file system.
+     */
+    void record(Path dir, Directory entry, boolean read) {
+        current.put(dir.toString(), entry);
+        if (read) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Saves directories found in current scan to index file, if something
+     * changed since last scan.
+     *
+     * @throws IOException if index file can't be written.
+     */
+    void save() throws IOException {
+        if (!changed && current.size() == previous.size()) {
+            return;
+        }
+        Files.createDirectories(INDEX_DIR);
+        Path indexFile = indexFile(root);
+        Path temp = Files.createTempFile(INDEX_DIR, "index", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(root.toString());
+                out.writeInt(current.size());
+                for (Map.Entry<String, Directory> entry : current.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().write(out);
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads a number of entries from index file.
+     *
+     * @param in index file stream.
+     * @param limit index file size, in bytes. Each entry takes at least one
+     * byte, so there can't be more entries.
+     * @return number of entries.
+     * @throws IOException if number is negative or larger than
+     * <i>limit</i>, so index file is damaged.
+     */
+    private static int readCount(DataInputStream in, long limit) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > limit) {
+            throw new IOException("Damaged index file, invalid count: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Returns path of index file of an image source directory.
+     *
+     * @param root image source directory.
+     * @return index file path.
+     */
+    private static Path indexFile(Path root) {
+        return INDEX_DIR.resolve(Integer.toHexString(root.toString().hashCode()) + ".idx");
+    }
+
+    /**
+     * Content of a directory: its image files and its subdirectories. Width
+     * and height of an image file are 0 if file couldn't be read as an image.
+     */
+    static class Directory {
+
+        /**
+         * Directory modification time, in milliseconds.
+         */
+        final long modified;
+
+        /**
+         * Names of image files.
+         */
+        final String[] files;
+
+        /**
+         * Sizes of image files, in bytes.
+         */
+        final long[] sizes;
+
+        /**
+         * Modification times of image files, in milliseconds.
+         */
+        final long[] times;
+
+        /**
+         * Widths of images, in pixels.
+         */
+        final int[] widths;
+
+        /**
+         * Heights of images, in pixels.
+         */
+        final int[] heights;
+
+        /**
+         * Format names of images, or empty strings for files that couldn't be
+         * read as images.
+         */
+        final String[] formats;
+
+        /**
+         * Names of subdirectories.
+         */
+        final String[] subdirs;
+
+        /**
+         * Constructor. Makes a new Directory.
+         * @param modified directory modification time.
+         * @param files names of image files.
+         * @param sizes sizes of image files.
+         * @param times modification times of image files.
+         * @param widths widths of images.
+         * @param heights heights of images.
+         * @param formats format names of images.
+         * @param subdirs names of subdirectories.
+         */
+        Directory(long modified, String[] files, long[] sizes, long[] times,
+                int[] widths, int[] heights, String[] formats, String[] subdirs) {
+            this.modified = modified;
+            this.files = files;
+            this.sizes = sizes;
+            this.times = times;
+            this.widths = widths;
+            this.heights = heights;
+            this.formats = formats;
+            this.subdirs = subdirs;
+        }
+
+        /**
+         * Reads a directory entry from index file.
+         * @param in index file stream.
+         * @param limit index file size, in bytes.
+         * @return directory entry.
+         * @throws IOException if index file can't be read, or is damaged.
+         */
+        static Directory read(DataInputStream in, long limit) throws IOException {
+            long modified = in.readLong();
+            int fileCount = readCount(in, limit);
+            String[] files = new String[fileCount];
+            long[] sizes = new long[fileCount];
+            long[] times = new long[fileCount];
+            int[] widths = new int[fileCount];
+            int[] heights = new int[fileCount];
+            String[] formats = new String[fileCount];
+            for (int i = 0; i < fileCount; i++) {
+                files[i] = in.readUTF();
+                sizes[i] = in.readLong();
+                times[i] = in.readLong();
+                widths[i] = in.readInt();
+                heights[i] = in.readInt();
+                formats[i] = in.readUTF();
+            }
+            String[] subdirs = new String[readCount(in, limit)];
+            for (int i = 0; i < subdirs.length; i++) {
+                subdirs[i] = in.readUTF();
+            }
+            return new Directory(modified, files, sizes, times, widths, heights, formats, subdirs);
+        }
+
+        /**
+         * Writes this directory entry to index file.
+         * @param out index file stream.
+         * @throws IOException if index file can't be written.
+         */
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(modified);
+            out.writeInt(files.length);
+            for (int i = 0; i < files.length; i++) {
+                out.writeUTF(files[i]);
+                out.writeLong(sizes[i]);
+                out.writeLong(times[i]);
+                out.writeInt(widths[i]);
+                out.writeInt(heights[i]);
+                out.writeUTF(formats[i]);
+            }
+            out.writeInt(subdirs.length);
+            for (String subdir : subdirs) {
+                out.writeUTF(subdir);
+            }
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package creativewriting.textmodel;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Scanner to find image files in image source directories. Each directory is
+ * read by its own task in a fork-join pool, so subdirectories are read in
+ * parallel, and file attributes are read once per entry. Paths of image files
+ * are handed to a consumer as soon as they are found, from scanning threads.
+ * <p>
+ * Scanner can use a {@link LibraryIndex} for each image source directory, so
+ * only directories modified since last scan are read from file system.
+ * <p>
+ * When a directory is read, header of each image file is read, in parallel,
+ * to find image dimensions and format without decoding pixels. Files that
+ * can't be read as images, or are larger than {@code MAX_PIXELS}, aren't
+ * handed to consumer. Dimensions and format are kept in index, so files
+ * whose size and modification time didn't change aren't read again. Files
+ * that couldn't be read are checked again on each scan, since a file still
+ * being copied changes without changing its directory.
+ *
+ * @author Thiago
+ */
+class LibraryScanner {
+
+    /**
+     * Pool shared by all scanners. Directory reading is mostly waiting for the
+     * file system, so pool has more threads than available processors.
+     */
+    private static final ForkJoinPool SCAN_POOL = new ForkJoinPool(
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Extensions of image files that can be read by java applications.
+     */
+    private static final String[] EXTENSIONS = {"png", "jpeg", "jpg", "gif", "bmp", "wbmp",
+        "PNG", "JPEG", "JPG", "GIF", "BMP", "wbmp"};
+
+    /**
+     * Largest number of pixels of an image found by scanner.
+     */
+    static final long MAX_PIXELS = 100_000_000L;
+
+    /**
+     * Number of image files whose headers are read by a single task.
+     */
+    private static final int PROBE_BATCH = 16;
+
+    /**
+     * Defines if subdirectories are read also.
+     */
+    private final boolean includeSubPaths;
+
+    /**
+     * Defines if scanner uses persistent index of image source directories.
+     */
+    private final boolean useIndex;
+
+    /**
+     * Defines if scanning was cancelled.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Constructor. Makes a new scanner.
+     *
+     * @param includeSubPaths if true, read also subdirectories.
+     * @param useIndex if true, use and update persistent index of image source
+     * directories.
+     */
+    LibraryScanner(boolean includeSubPaths, boolean useIndex) {
+        this.includeSubPaths = includeSubPaths;
+        this.useIndex = useIndex;
+    }
+
+    /**
+     * Scans directories for image files. This method returns when all
+     * directories were read. Consumer may be called concurrently from several
+     * threads, so it must be thread safe.
+     *
+     * @param dirs directories to read.
+     * @param consumer receives absolute path of each image file found.
+     * @throws CancellationException if scanning is cancelled.
+     */
+    void scan(List<Path> dirs, Consumer<String> consumer) {
+        List<DirectoryTask> tasks = new ArrayList<>();
+        List<LibraryIndex> indexes = new ArrayList<>();
+        for (Path dir : dirs) {
+            Path root = dir.toAbsolutePath();
+            LibraryIndex index = null;
+            if (useIndex) {
+                index = LibraryIndex.load(root);
+                indexes.add(index);
+            }
+            tasks.add(new DirectoryTask(root, index, consumer));
+        }
+        SCAN_POOL.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        for (LibraryIndex index : indexes) {
+            try {
+                index.save();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+    }
+
+    /**
+     * Cancels scanning. Directories not read yet are skipped, and
+     * {@code scan()} throws a CancellationException.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Checks if a file name has valid extension for image files that can be read
+     * by java applications.
+     *
+     * @param fileName file name.
+     * @return true if file name has valid extension.
+     */
+    static boolean isValidExtension(String fileName) {
+        for (String str : EXTENSIONS) {
+            if (fileName.endsWith(str)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if an image file found by scanner can be drawn: its header could
+     * be read, and it isn't larger than {@code MAX_PIXELS}.
+     *
+     * @param entry directory content.
+     * @param i index of image file in directory.
+     * @return true if image file can be drawn.
+     */
+    private static boolean isDrawable(LibraryIndex.Directory entry, int i) {
+        int width = entry.widths[i];
+        int height = entry.heights[i];
+        return width > 0 && height > 0 && (long) width * height <= MAX_PIXELS;
+    }
+
+    /**
+     * Reads dimensions and format of an image from its header, without
+     * decoding pixels.
+     *
+     * @param file image file.
+     * @param i index where dimensions and format are stored.
+     * @param widths image widths.
+     * @param heights image heights.
+     * @param formats image format names. Empty string is stored if file can't
+     * be read as an image.
+     */
+    private static void probe(Path file, int i, int[] widths, int[] heights, String[] formats) {
+        formats[i] = "";
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            if (in == null) {
+                return;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                widths[i] = reader.getWidth(0);
+                heights[i] = reader.getHeight(0);
+                formats[i] = reader.getFormatName();
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            widths[i] = 0;
+            heights[i] = 0;
+            formats[i] = "";
+        }
+    }
+
+    /**
+     * Task to read headers of some image files of a directory. Large sets of
+     * files are split between new tasks.
+     */
+    @SuppressWarnings("serial")
+    private class ProbeTask extends RecursiveAction {
+
+        /**
+         * Directory of image files.
+         */
+        private final Path dir;
+
+        /**
+         * Names of image files in directory.
+         */
+        private final String[] files;
+
+        /**
+         * Indexes of image files whose headers must be read.
+         */
+        private final int[] pending;
+
+        /**
+         * First index in <i>pending</i> read by this task.
+         */
+        private final int from;
+
+        /**
+         * Index in <i>pending</i> after last one read by this task.
+         */
+        private final int to;
+
+        /**
+         * Receives image widths.
+         */
+        private final int[] widths;
+
+        /**
+         * Receives image heights.
+         */
+        private final int[] heights;
+
+        /**
+         * Receives image format names.
+         */
+        private final String[] formats;
+
+        /**
+         * Constructor. Makes a new ProbeTask.
+         * @param dir directory of image files.
+         * @param files names of image files.
+         * @param pending indexes of image files whose headers must be read.
+         * @param from first index in <i>pending</i> to read.
+         * @param to index in <i>pending</i> after last one to read.
+         * @param widths receive image widths.
+         * @param heights receive image heights.
+         * @param formats receive image format names.
+         */
+        ProbeTask(Path dir, String[] files, int[] pending, int from, int to,
+                int[] widths, int[] heights, String[] formats) {
+            this.dir = dir;
+            this.files = files;
+            this.pending = pending;
+            this.from = from;
+            this.to = to;
+            this.widths = widths;
+            this.heights = heights;
+            this.formats = formats;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > PROBE_BATCH) {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new ProbeTask(dir, files, pending, from, middle, widths, heights, formats),
+                        new ProbeTask(dir, files, pending, middle, to, widths, heights, formats));
+                return;
+            }
+            for (int j = from; j < to && !cancelled; j++) {
+                int i = pending[j];
+                probe(dir.resolve(files[i]), i, widths, heights, formats);
+            }
+        }
+    }
+
+    /**
+     * Task to read one directory. Subdirectories are read by new tasks.
+     */
+    @SuppressWarnings("serial")
+    private class DirectoryTask extends RecursiveAction {
+
+        /**
+         * Directory to read.
+         */
+        private final Path dir;
+
+        /**
+         * Index of image source directory, or null if no index is used.
+         */
+        private final LibraryIndex index;
+
+        /**
+         * Receives path of each image file found.
+         */
+        private final Consumer<String> consumer;
+
+        /**
+         * Constructor. Makes a new DirectoryTask.
+         * @param dir directory to read.
+         * @param index index of image source directory, or null.
+         * @param consumer receives path of each image file found.
+         */
+        DirectoryTask(Path dir, LibraryIndex index, Consumer<String> consumer) {
+            this.dir = dir;
+            this.index = index;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) {
+                return;
+            }
+            LibraryIndex.Directory entry;
+            try {
+                if (index == null) {
+                    entry = readDirectory(0, null);
+                } else {
+                    long modified = Files.getLastModifiedTime(dir).toMillis();
+                    entry = index.lookup(dir, modified);
+                    boolean read = entry == null;
+                    if (read) {
+                        entry = readDirectory(modified, index.recorded(dir));
+                    } else {
+                        LibraryIndex.Directory rechecked = recheckUnreadable(entry);
+                        read = rechecked != entry;
+                        entry = rechecked;
+                    }
+                    index.record(dir, entry, read);
+                }
+            } catch (IOException e) {
+                return;
+            }
+
+            for (int i = 0; i < entry.files.length; i++) {
+                if (isDrawable(entry, i)) {
+                    consumer.accept(dir.resolve(entry.files[i]).toString());
+                }
+            }
+            if (includeSubPaths) {
+                List<DirectoryTask> subTasks = new ArrayList<>();
+                for (String subdir : entry.subdirs) {
+                    subTasks.add(new DirectoryTask(dir.resolve(subdir), index, consumer));
+                }
+                invokeAll(subTasks);
+            }
+        }
+
+        /**
+         * Reads again headers of image files that couldn't be read in last
+         * scan, if their size or modification time changed since.
+         * @param entry directory content recorded in last scan.
+         * @return <i>entry</i>, if no image file was read again; otherwise, a
+         * new directory content with dimensions and format read.
+         */
+        private LibraryIndex.Directory recheckUnreadable(LibraryIndex.Directory entry) {
+            int[] pending = new int[entry.files.length];
+            int pendingCount = 0;
+            long[] sizes = entry.sizes;
+            long[] times = entry.times;
+            for (int i = 0; i < entry.files.length; i++) {
+                if (entry.widths[i] > 0) {
+                    continue;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(dir.resolve(entry.files[i]),
+                            BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+                long time = attrs.lastModifiedTime().toMillis();
+                if (attrs.size() != sizes[i] || time != times[i]) {
+                    if (sizes == entry.sizes) {
+                        sizes = entry.sizes.clone();
+                        times = entry.times.clone();
+                    }
+                    sizes[i] = attrs.size();
+                    times[i] = time;
+                    pending[pendingCount++] = i;
+                }
+            }
+            if (pendingCount == 0) {
+                return entry;
+            }
+            int[] widths = entry.widths.clone();
+            int[] heights = entry.heights.clone();
+            String[] formats = entry.formats.clone();
+            new ProbeTask(dir, entry.files, pending, 0, pendingCount, widths, heights, formats)
+                    .invoke();
+            return new LibraryIndex.Directory(entry.modified, entry.files, sizes, times,
+                    widths, heights, formats, entry.subdirs);
+        }
+
+        /**
+         * Reads directory content from file system, and headers of its image
+         * files.
+         * @param modified directory modification time.
+         * @param old directory content recorded in last scan, or null. Image
+         * files whose size and modification time didn't change keep their
+         * recorded dimensions and format.
+         * @return directory content.
+         * @throws IOException if directory can't be read.
+         */
+        private LibraryIndex.Directory readDirectory(long modified, LibraryIndex.Directory old)
+                throws IOException {
+            List<String> files = new ArrayList<>();
+            List<BasicFileAttributes> fileAttrs = new ArrayList<>();
+            List<String> subdirs = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    String name = entry.getFileName().toString();
+                    if (attrs.isRegularFile()) {
+                        if (isValidExtension(name)) {
+                            files.add(name);
+                            fileAttrs.add(attrs);
+                        }
+                    } else if (attrs.isDirectory()) {
+                        subdirs.add(name);
+                    }
+                }
+            }
+            String[] names = files.toArray(new String[files.size()]);
+            long[] sizes = new long[names.length];
+            long[] times = new long[names.length];
+            int[] widths = new int[names.length];
+            int[] heights = new int[names.length];
+            String[] formats = new String[names.length];
+            Map<String, Integer> recorded = new HashMap<>();
+            if (old != null) {
+                for (int i = 0; i < old.files.length; i++) {
+                    recorded.put(old.files[i], i);
+                }
+            }
+            int[] pending = new int[names.length];
+            int pendingCount = 0;
+            for (int i = 0; i < names.length; i++) {
+                sizes[i] = fileAttrs.get(i).size();
+                times[i] = fileAttrs.get(i).lastModifiedTime().toMillis();
+                Integer j = recorded.get(names[i]);
+                if (j != null && old.sizes[j] == sizes[i] && old.times[j] == times[i]) {
+                    widths[i] = old.widths[j];
+                    heights[i] = old.heights[j];
+                    formats[i] = old.formats[j];
+                } else {
+                    pending[pendingCount++] = i;
+                }
+            }
+            new ProbeTask(dir, names, pending, 0, pendingCount, widths, heights, formats).invoke();
+            return new LibraryIndex.Directory(modified, names, sizes, times,
+                    widths, heights, formats, subdirs.toArray(new String[subdirs.size()]));
+        }
+    }
+}
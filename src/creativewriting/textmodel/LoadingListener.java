@@ -0,0 +1,18 @@
+package creativewriting.textmodel;
+
+/**
+ * Listener to follow image library indexing, while a text model is made in
+ * background.
+ *
+ * @author Thiago
+ */
+public interface LoadingListener {
+
+    /**
+     * Reports number of images found so far. This method is called from
+     * background threads.
+     *
+     * @param count number of images found so far.
+     */
+    void imagesFound(int count);
+}
@@ -0,0 +1,373 @@
+package creativewriting.textmodel;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * List of paragraphs of a memory mapped xml file. Only start and end offsets
+ * of each paragraph content are kept in memory; paragraph text is decoded from
+ * mapped file each time it's read. Paragraphs changed or added after file was
+ * read are kept as strings.
+ *
+ * @author Thiago
+ */
+class MappedParagraphs extends AbstractList<String> implements RandomAccess {
+
+    /**
+     * Mapped xml file.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Offset of content start of each paragraph.
+     */
+    private int[] starts;
+
+    /**
+     * Offset of content end of each paragraph.
+     */
+    private int[] ends;
+
+    /**
+     * Text of each paragraph changed or added after file was read, or null for
+     * paragraphs still read from file.
+     */
+    private String[] texts;
+
+    /**
+     * Number of paragraphs.
+     */
+    private int size;
+
+    /**
+     * Constructor. Makes an empty list of paragraphs of a mapped file.
+     *
+     * @param buffer mapped xml file.
+     */
+    MappedParagraphs(ByteBuffer buffer) {
+        this.buffer = buffer;
+        starts = new int[16];
+        ends = new int[16];
+        texts = new String[16];
+    }
+
+    /**
+     * Adds a paragraph read from file at list end.
+     *
+     * @param start offset of paragraph content start.
+     * @param end offset of paragraph content end.
+     */
+    void addMapped(int start, int end) {
+        ensureCapacity(size + 1);
+        starts[size] = start;
+        ends[size] = end;
+        texts[size] = null;
+        size++;
+    }
+
+    /**
+     * Returns a copy of this list, for another thread to read while this one
+     * changes. Copy shares mapped file, which never changes, and paragraph
+     * strings, so no paragraph is decoded.
+     *
+     * @return copy of this list.
+     */
+    MappedParagraphs snapshot() {
+        MappedParagraphs copy = new MappedParagraphs(buffer);
+        copy.starts = Arrays.copyOf(starts, Math.max(size, 1));
+        copy.ends = Arrays.copyOf(ends, Math.max(size, 1));
+        copy.texts = Arrays.copyOf(texts, Math.max(size, 1));
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Replaces content of this list by content of another list, usually
+     * mapped from a newer file with the same paragraphs. Previous mapped file
+     * is released when no other list uses it.
+     *
+     * @param other list whose content is taken.
+     */
+    void adopt(MappedParagraphs other) {
+        buffer = other.buffer;
+        starts = other.starts;
+        ends = other.ends;
+        texts = other.texts;
+        size = other.size;
+        modCount++;
+    }
+
+    @Override
+    public String get(int index) {
+        checkIndex(index, size);
+        String text = texts[index];
+        if (text == null) {
+            text = decode(buffer, starts[index], ends[index]);
+        }
+        return text;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String set(int index, String element) {
+        String old = get(index);
+        texts[index] = element;
+        return old;
+    }
+
+    @Override
+    public void add(int index, String element) {
+        addAll(index, Arrays.asList(element));
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends String> c) {
+        checkIndex(index, size + 1);
+        int count = c.size();
+        if (count == 0) {
+            return false;
+        }
+        ensureCapacity(size + count);
+        System.arraycopy(starts, index, starts, index + count, size - index);
+        System.arraycopy(ends, index, ends, index + count, size - index);
+        System.arraycopy(texts, index, texts, index + count, size - index);
+        for (String element : c) {
+            texts[index++] = element;
+        }
+        size += count;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public String remove(int index) {
+        String old = get(index);
+        removeRange(index, index + 1);
+        return old;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        System.arraycopy(starts, toIndex, starts, fromIndex, size - toIndex);
+        System.arraycopy(ends, toIndex, ends, fromIndex, size - toIndex);
+        System.arraycopy(texts, toIndex, texts, fromIndex, size - toIndex);
+        int newSize = size - (toIndex - fromIndex);
+        Arrays.fill(texts, newSize, size, null);
+        size = newSize;
+        modCount++;
+    }
+
+    /**
+     * Makes room for paragraphs.
+     *
+     * @param capacity number of paragraphs arrays must hold.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > starts.length) {
+            int newLength = Math.max(capacity, starts.length * 2);
+            starts = Arrays.copyOf(starts, newLength);
+            ends = Arrays.copyOf(ends, newLength);
+            texts = Arrays.copyOf(texts, newLength);
+        }
+    }
+
+    /**
+     * Checks if an index is in a range.
+     *
+     * @param index index to check.
+     * @param limit index after last valid index.
+     */
+    private static void checkIndex(int index, int limit) {
+        if (index < 0 || index >= limit) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + limit);
+        }
+    }
+
+    /**
+     * Decodes character data of a xml file: UTF-8 bytes, entity and character
+     * references, CDATA sections and line ends.
+     *
+     * @param buffer mapped xml file.
+     * @param start offset of character data start.
+     * @param end offset of character data end.
+     * @return decoded text.
+     */
+    static String decode(ByteBuffer buffer, int start, int end) {
+        return decode(buffer, start, end, false);
+    }
+
+    /**
+     * Decodes an attribute value of a xml file: UTF-8 bytes, entity and
+     * character references, and white spaces, which are replaced by spaces as
+     * a xml parser does.
+     *
+     * @param buffer mapped xml file.
+     * @param start offset of attribute value start.
+     * @param end offset of attribute value end.
+     * @return decoded attribute value.
+     */
+    static String decodeAttribute(ByteBuffer buffer, int start, int end) {
+        return decode(buffer, start, end, true);
+    }
+
+    /**
+     * Decodes character data or an attribute value of a xml file.
+     *
+     * @param buffer mapped xml file.
+     * @param start offset of data start.
+     * @param end offset of data end.
+     * @param attribute true if data is an attribute value.
+     * @return decoded text.
+     */
+    private static String decode(ByteBuffer buffer, int start, int end, boolean attribute) {
+        byte[] bytes = new byte[end - start];
+        ByteBuffer data = buffer.duplicate();
+        data.position(start);
+        data.get(bytes);
+        String raw = new String(bytes, StandardCharsets.UTF_8);
+        if (raw.indexOf('&') < 0 && raw.indexOf('<') < 0 && raw.indexOf('\r') < 0
+                && (!attribute || (raw.indexOf('\n') < 0 && raw.indexOf('\t') < 0))) {
+            return raw;
+        }
+
+        StringBuilder sb = new StringBuilder(raw.length());
+        int i = 0;
+        while (i < raw.length()) {
+            char c = raw.charAt(i);
+            if (c == '<' && raw.startsWith("<![CDATA[", i)) {
+                int cdataEnd = raw.indexOf("]]>", i);
+                if (cdataEnd < 0) {
+                    cdataEnd = raw.length();
+                }
+                appendLines(sb, raw, i + 9, cdataEnd);
+                i = cdataEnd + 3;
+            } else if (c == '&') {
+                int semicolon = raw.indexOf(';', i);
+                if (semicolon < 0) {
+                    throw new IllegalArgumentException("Invalid reference at offset " + (start + i));
+                }
+                appendReference(sb, raw.substring(i + 1, semicolon));
+                i = semicolon + 1;
+            } else if (c == '\r') {
+                sb.append(attribute ? ' ' : '\n');
+                i += raw.startsWith("\r\n", i) ? 2 : 1;
+            } else if (attribute && (c == '\n' || c == '\t')) {
+                sb.append(' ');
+                i++;
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends text, replacing its line ends by new line characters.
+     *
+     * @param sb where to append text.
+     * @param raw string with text.
+     * @param start text start in <i>raw</i>.
+     * @param end text end in <i>raw</i>.
+     */
+    private static void appendLines(StringBuilder sb, String raw, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = raw.charAt(i);
+            if (c == '\r') {
+                sb.append('\n');
+                if (i + 1 < end && raw.charAt(i + 1) == '\n') {
+                    i++;
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Checks an entity or character reference.
+     *
+     * @param name reference, without its delimiters {@code &} and {@code ;}.
+     * @throws IllegalArgumentException if reference isn't a predefined entity
+     * or a reference to a valid xml character.
+     */
+    static void checkReference(String name) {
+        appendReference(new StringBuilder(2), name);
+    }
+
+    /**
+     * Appends character referenced by an entity or character reference.
+     *
+     * @param sb where to append character.
+     * @param name reference, without its delimiters {@code &} and {@code ;}.
+     * @throws IllegalArgumentException if reference isn't a predefined entity
+     * or a reference to a valid xml character.
+     */
+    private static void appendReference(StringBuilder sb, String name) {
+        switch (name) {
+            case "lt":
+                sb.append('<');
+                break;
+            case "gt":
+                sb.append('>');
+                break;
+            case "amp":
+                sb.append('&');
+                break;
+            case "quot":
+                sb.append('"');
+                break;
+            case "apos":
+                sb.append('\'');
+                break;
+            default:
+                int c;
+                if (name.startsWith("#x")) {
+                    c = parseCharacter(name, 2, 16);
+                } else if (name.startsWith("#")) {
+                    c = parseCharacter(name, 1, 10);
+                } else {
+                    throw new IllegalArgumentException("Unknown entity: " + name);
+                }
+                sb.appendCodePoint(c);
+                break;
+        }
+    }
+
+    /**
+     * Parses code point of a character reference.
+     *
+     * @param name reference, without its delimiters {@code &} and {@code ;}.
+     * @param start index of first digit in <i>name</i>.
+     * @param radix 10 or 16.
+     * @return referenced code point.
+     * @throws IllegalArgumentException if reference doesn't have only ASCII
+     * digits, or doesn't reference a valid xml character.
+     */
+    private static int parseCharacter(String name, int start, int radix) {
+        int c = 0;
+        for (int i = start; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            int digit = ch < 0x80 ? Character.digit(ch, radix) : -1;
+            if (digit < 0 || c > 0x10ffff) {
+                c = -1;
+                break;
+            }
+            c = c * radix + digit;
+        }
+        if (name.length() == start || !(c == 0x9 || c == 0xa || c == 0xd
+                || (c >= 0x20 && c <= 0xd7ff) || (c >= 0xe000 && c <= 0xfffd)
+                || (c >= 0x10000 && c <= 0x10ffff))) {
+            throw new IllegalArgumentException("Invalid character reference: " + name);
+        }
+        return c;
+    }
+}
@@ -0,0 +1,512 @@
+package creativewriting.textmodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads a very large creative writing xml file without loading its text in
+ * memory. File is memory mapped, and scanned once to find offsets of its
+ * elements; paragraphs are then decoded from mapped file only when they are
+ * read, by {@link MappedParagraphs}.
+ * <p>
+ * Instead of validating file against schema, which would mean parsing it
+ * whole, this reader checks the structure schema requires while scanning:
+ * elements order, required attributes, and that there is no text outside
+ * title and paragraphs. It only reads files encoded in UTF-8, as written by
+ * {@link SessionWriter}.
+ *
+ * @author Thiago
+ */
+class MappedSessionReader {
+
+    /**
+     * Scanner state: before root element.
+     */
+    private static final int BEFORE_ROOT = 0;
+
+    /**
+     * Scanner state: inside root element, before images.
+     */
+    private static final int IN_ROOT = 1;
+
+    /**
+     * Scanner state: inside images element.
+     */
+    private static final int IN_IMAGES = 2;
+
+    /**
+     * Scanner state: inside root element, after images.
+     */
+    private static final int AFTER_IMAGES = 3;
+
+    /**
+     * Scanner state: inside text element, before title.
+     */
+    private static final int BEFORE_TITLE = 4;
+
+    /**
+     * Scanner state: inside text element, after title.
+     */
+    private static final int IN_TEXT = 5;
+
+    /**
+     * Scanner state: inside root element, after text.
+     */
+    private static final int AFTER_TEXT = 6;
+
+    /**
+     * Scanner state: after root element.
+     */
+    private static final int AFTER_ROOT = 7;
+
+    /**
+     * Mapped xml file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Current offset in mapped file.
+     */
+    private int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer mapped xml file.
+     */
+    private MappedSessionReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns if a file can be read by this reader: it's smaller than 2 GB
+     * and, if it has a xml declaration with an encoding, it's UTF-8.
+     *
+     * @param file xml file.
+     * @return true if <i>file</i> can be read by this reader.
+     * @throws IOException if file can't be read.
+     */
+    static boolean canRead(File file) throws IOException {
+        if (file.length() > Integer.MAX_VALUE) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(200);
+            channel.read(head);
+            String prolog = new String(head.array(), 0, head.position(), StandardCharsets.ISO_8859_1);
+            int end = prolog.indexOf("?>");
+            if (!prolog.startsWith("<?xml") || end < 0) {
+                return true;
+            }
+            prolog = prolog.substring(0, end).toLowerCase();
+            return !prolog.contains("encoding") || prolog.contains("utf-8");
+        }
+    }
+
+    /**
+     * Maps and reads a xml file.
+     *
+     * @param file xml file to read.
+     * @return session read. Its paragraphs are decoded from mapped file when
+     * read.
+     * @throws SAXException if file isn't a well formed creative writing xml
+     * file.
+     * @throws IOException if file can't be read.
+     */
+    static Session read(File file) throws SAXException, IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return new MappedSessionReader(buffer).read();
+        } catch (IllegalArgumentException ex) {
+            throw new SAXException(file + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Scans mapped file and indexes its elements. Elements must be in order
+     * required by schema: root element, image source directories, images,
+     * then text with its title and paragraphs.
+     *
+     * @return session read.
+     * @throws SAXException if file isn't a well formed creative writing xml
+     * file.
+     */
+    private Session read() throws SAXException {
+        int state = BEFORE_ROOT;
+        boolean readSub = false;
+        boolean mainLib = false;
+        List<String> sources = new ArrayList<>();
+        List<String> images = new ArrayList<>();
+        String title = "";
+        MappedParagraphs paragraphs = new MappedParagraphs(buffer);
+
+        int limit = buffer.limit();
+        while (pos < limit) {
+            byte b = buffer.get(pos);
+            if (b != '<') {
+                if (!isWhitespace(b)) {
+                    throw new SAXException("Unexpected text at offset " + pos);
+                }
+                pos++;
+            } else if (startsWith("<?")) {
+                pos = indexOf("?>", pos) + 2;
+            } else if (startsWith("<!--")) {
+                pos = indexOf("-->", pos) + 3;
+            } else if (startsWith("<!DOCTYPE") && state == BEFORE_ROOT) {
+                pos = indexOf(">", pos) + 1;
+            } else if (startsWith("</")) {
+                String name = tagName(pos + 2);
+                if (state == IN_IMAGES && name.equals("images")) {
+                    state = AFTER_IMAGES;
+                } else if (state == IN_TEXT && name.equals("text")) {
+                    state = AFTER_TEXT;
+                } else if (state == AFTER_TEXT && name.equals("creative_writing")) {
+                    state = AFTER_ROOT;
+                } else {
+                    throw new SAXException("Unexpected end tag " + name + " at offset " + pos);
+                }
+                pos = endTag(pos, name);
+            } else if (startsWith("<!")) {
+                throw new SAXException("Unexpected markup at offset " + pos);
+            } else {
+                int tagEnd = tagEnd(pos);
+                boolean empty = buffer.get(tagEnd - 1) == '/';
+                String name = tagName(pos + 1);
+                int contentStart = tagEnd + 1;
+                int next = empty ? contentStart : -1;
+                if (state == BEFORE_ROOT && name.equals("creative_writing")) {
+                    readSub = "yes".equals(requiredAttribute(pos, tagEnd, "read_subdirectory"));
+                    mainLib = "yes".equals(requiredAttribute(pos, tagEnd, "use_default_library"));
+                    state = empty ? AFTER_ROOT : IN_ROOT;
+                    next = contentStart;
+                } else if (state == IN_ROOT && name.equals("image_source_directory")) {
+                    sources.add(requiredAttribute(pos, tagEnd, "src"));
+                } else if (state == IN_ROOT && name.equals("images")) {
+                    state = empty ? AFTER_IMAGES : IN_IMAGES;
+                    next = contentStart;
+                } else if (state == IN_IMAGES && name.equals("img")) {
+                    images.add(requiredAttribute(pos, tagEnd, "src"));
+                } else if (state == AFTER_IMAGES && name.equals("text") && !empty) {
+                    state = BEFORE_TITLE;
+                    next = contentStart;
+                } else if (state == BEFORE_TITLE && name.equals("title")) {
+                    if (!empty) {
+                        int contentEnd = contentEnd(contentStart, name);
+                        title = MappedParagraphs.decode(buffer, contentStart, contentEnd);
+                        next = endTag(contentEnd, name);
+                    }
+                    state = IN_TEXT;
+                } else if (state == IN_TEXT && name.equals("p")) {
+                    if (empty) {
+                        paragraphs.addMapped(contentStart, contentStart);
+                    } else {
+                        int contentEnd = contentEnd(contentStart, name);
+                        paragraphs.addMapped(contentStart, contentEnd);
+                        next = endTag(contentEnd, name);
+                    }
+                } else if (state == BEFORE_ROOT) {
+                    throw new SAXException("Not a creative writing file, root element: " + name);
+                } else {
+                    throw new SAXException("Unexpected element " + name + " at offset " + pos);
+                }
+                if (next < 0) {
+                    if (!matches(contentStart, "</")) {
+                        throw new SAXException("Element " + name + " must be empty at offset " + pos);
+                    }
+                    next = endTag(contentStart, name);
+                }
+                pos = next;
+            }
+        }
+        if (state == BEFORE_ROOT) {
+            throw new SAXException("Not a creative writing file");
+        } else if (state != AFTER_ROOT) {
+            throw new SAXException("Unexpected end of file");
+        }
+
+        Session session = new Session(readSub, mainLib, sources, paragraphs);
+        for (String image : images) {
+            session.getImages().add(image);
+        }
+        session.setTitle(title);
+        return session;
+    }
+
+    /**
+     * Checks an end tag.
+     *
+     * @param start offset of {@code </} that starts end tag.
+     * @param name expected element name.
+     * @return offset after end tag.
+     * @throws SAXException if there isn't an end tag of element <i>name</i>
+     * at <i>start</i>.
+     */
+    private int endTag(int start, String name) throws SAXException {
+        int i = start + 2;
+        if (!matches(start, "</") || !tagName(i).equals(name)) {
+            throw new SAXException("Expected </" + name + "> at offset " + start);
+        }
+        i += name.length();
+        while (i < buffer.limit() && isWhitespace(buffer.get(i))) {
+            i++;
+        }
+        if (i >= buffer.limit() || buffer.get(i) != '>') {
+            throw new SAXException("Unterminated end tag at offset " + start);
+        }
+        return i + 1;
+    }
+
+    /**
+     * Returns if a byte is a xml white space.
+     *
+     * @param b byte.
+     * @return true if <i>b</i> is a space, tab, line feed or carriage return.
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    /**
+     * Returns if mapped file has a string at current offset.
+     *
+     * @param str ASCII string.
+     * @return true if file has <i>str</i> at current offset.
+     */
+    private boolean startsWith(String str) {
+        return matches(pos, str);
+    }
+
+    /**
+     * Returns if mapped file has a string at an offset.
+     *
+     * @param offset offset in file.
+     * @param str ASCII string.
+     * @return true if file has <i>str</i> at <i>offset</i>.
+     */
+    private boolean matches(int offset, String str) {
+        if (offset + str.length() > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); i++) {
+            if (buffer.get(offset + i) != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns offset of next occurrence of a string.
+     *
+     * @param str ASCII string.
+     * @param from offset where search starts.
+     * @return offset of <i>str</i>.
+     * @throws SAXException if <i>str</i> isn't found.
+     */
+    private int indexOf(String str, int from) throws SAXException {
+        byte first = (byte) str.charAt(0);
+        for (int i = from; i < buffer.limit(); i++) {
+            if (buffer.get(i) == first && matches(i, str)) {
+                return i;
+            }
+        }
+        throw new SAXException("Unexpected end of file, expected " + str);
+    }
+
+    /**
+     * Returns offset of {@code >} that ends a start tag, skipping quoted
+     * attribute values.
+     *
+     * @param start offset of start tag.
+     * @return offset of tag end.
+     * @throws SAXException if tag doesn't end.
+     */
+    private int tagEnd(int start) throws SAXException {
+        byte quote = 0;
+        for (int i = start + 1; i < buffer.limit(); i++) {
+            byte b = buffer.get(i);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i;
+            } else if (b == '<') {
+                break;
+            }
+        }
+        throw new SAXException("Unterminated tag at offset " + start);
+    }
+
+    /**
+     * Returns name of element whose start tag is at an offset.
+     *
+     * @param start offset after {@code <}.
+     * @return element name.
+     */
+    private String tagName(int start) {
+        int end = start;
+        while (end < buffer.limit() && !isNameEnd(buffer.get(end))) {
+            end++;
+        }
+        return ascii(start, end);
+    }
+
+    /**
+     * Returns if a byte ends an element or attribute name.
+     *
+     * @param b byte.
+     * @return true if <i>b</i> is a white space, {@code /}, {@code >} or
+     * {@code =}.
+     */
+    private static boolean isNameEnd(byte b) {
+        return isWhitespace(b) || b == '/' || b == '>' || b == '=';
+    }
+
+    /**
+     * Returns offset of end tag of an element, skipping CDATA sections.
+     * References in element content are checked, so content can later be
+     * decoded without errors.
+     *
+     * @param start offset of element content.
+     * @param name element name.
+     * @return offset of end tag.
+     * @throws SAXException if element has child elements or invalid
+     * references, or doesn't end.
+     */
+    private int contentEnd(int start, String name) throws SAXException {
+        int limit = buffer.limit();
+        for (int i = start; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '&') {
+                i = referenceEnd(i);
+            } else if (b != '<') {
+                continue;
+            } else if (matches(i, "<![CDATA[")) {
+                i = indexOf("]]>", i) + 2;
+            } else if (matches(i, "<!--")) {
+                throw new SAXException("Comment inside " + name + " at offset " + i);
+            } else if (matches(i, "</" + name) && i + 2 + name.length() < buffer.limit()
+                    && isNameEnd(buffer.get(i + 2 + name.length()))) {
+                return i;
+            } else {
+                throw new SAXException("Unexpected element inside " + name + " at offset " + i);
+            }
+        }
+        throw new SAXException("Unexpected end of file, expected </" + name + ">");
+    }
+
+    /**
+     * Checks an entity or character reference.
+     *
+     * @param start offset of {@code &} that starts reference.
+     * @return offset of {@code ;} that ends reference.
+     * @throws SAXException if reference is invalid.
+     */
+    private int referenceEnd(int start) throws SAXException {
+        int end = start + 1;
+        while (end < buffer.limit() && buffer.get(end) != ';' && !isNameEnd(buffer.get(end))
+                && buffer.get(end) != '<' && buffer.get(end) != '&') {
+            end++;
+        }
+        if (end >= buffer.limit() || buffer.get(end) != ';') {
+            throw new SAXException("Invalid reference at offset " + start);
+        }
+        try {
+            MappedParagraphs.checkReference(ascii(start + 1, end));
+        } catch (IllegalArgumentException ex) {
+            throw new SAXException(ex.getMessage() + " at offset " + start, ex);
+        }
+        return end;
+    }
+
+    /**
+     * Returns value of an attribute of a start tag.
+     *
+     * @param start offset of start tag.
+     * @param end offset of start tag end.
+     * @param name attribute name.
+     * @return attribute value, or null if start tag doesn't have this
+     * attribute.
+     * @throws SAXException if start tag isn't well formed.
+     */
+    private String attribute(int start, int end, String name) throws SAXException {
+        int i = start + 1;
+        while (i < end && !isNameEnd(buffer.get(i))) {
+            i++;
+        }
+        while (i < end) {
+            byte b = buffer.get(i);
+            if (isNameEnd(b)) {
+                i++;
+                continue;
+            }
+            int nameStart = i;
+            while (i < end && !isNameEnd(buffer.get(i))) {
+                i++;
+            }
+            String attrName = ascii(nameStart, i);
+            while (i < end && buffer.get(i) != '"' && buffer.get(i) != '\'') {
+                i++;
+            }
+            if (i >= end) {
+                throw new SAXException("Invalid attribute " + attrName + " at offset " + nameStart);
+            }
+            byte quote = buffer.get(i);
+            int valueStart = i + 1;
+            int valueEnd = valueStart;
+            while (valueEnd < end && buffer.get(valueEnd) != quote) {
+                valueEnd++;
+            }
+            if (attrName.equals(name)) {
+                return MappedParagraphs.decodeAttribute(buffer, valueStart, valueEnd);
+            }
+            i = valueEnd + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Returns value of a required attribute of a start tag.
+     *
+     * @param start offset of start tag.
+     * @param end offset of start tag end.
+     * @param name attribute name.
+     * @return attribute value.
+     * @throws SAXException if start tag doesn't have this attribute.
+     */
+    private String requiredAttribute(int start, int end, String name) throws SAXException {
+        String value = attribute(start, end, name);
+        if (value == null) {
+            throw new SAXException("Missing attribute " + name + " at offset " + start);
+        }
+        return value;
+    }
+
+    /**
+     * Returns ASCII string in a range of mapped file.
+     *
+     * @param start range start.
+     * @param end range end.
+     * @return string in range.
+     */
+    private String ascii(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
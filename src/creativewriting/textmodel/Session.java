@@ -0,0 +1,201 @@
+package creativewriting.textmodel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data of a creative writing work: image sources, images used, title and
+ * paragraphs. This is the in-memory form of xml file read by
+ * {@link SessionReader} and written by {@link SessionWriter}.
+ *
+ * @author Thiago
+ */
+class Session {
+
+    /**
+     * Defines if subdirectories of image source directories are read.
+     */
+    private final boolean readSubdirectory;
+
+    /**
+     * Defines if default library is used as image source.
+     */
+    private final boolean useDefaultLibrary;
+
+    /**
+     * Image source directories.
+     */
+    private final List<String> sourceDirectories;
+
+    /**
+     * Images used, in the order they were used.
+     */
+    private final ImageHistory images;
+
+    /**
+     * Text title.
+     */
+    private String title;
+
+    /**
+     * Text paragraphs.
+     */
+    private final List<String> paragraphs;
+
+    /**
+     * Constructor. Makes a new session without images and text.
+     *
+     * @param readSubdirectory if true, read also subdirectories of image
+     * source directories.
+     * @param useDefaultLibrary if true, use default library as image source.
+     * @param sourceDirectories image source directories.
+     */
+    Session(boolean readSubdirectory, boolean useDefaultLibrary, List<String> sourceDirectories) {
+        this(readSubdirectory, useDefaultLibrary, sourceDirectories, new ArrayList<String>());
+    }
+
+    /**
+     * Constructor. Makes a new session without images and title, whose
+     * paragraphs are kept in a given list.
+     *
+     * @param readSubdirectory if true, read also subdirectories of image
+     * source directories.
+     * @param useDefaultLibrary if true, use default library as image source.
+     * @param sourceDirectories image source directories.
+     * @param paragraphs list that keeps text paragraphs. It must support
+     * adding, removing and replacing paragraphs.
+     */
+    Session(boolean readSubdirectory, boolean useDefaultLibrary, List<String> sourceDirectories,
+            List<String> paragraphs) {
+        this.readSubdirectory = readSubdirectory;
+        this.useDefaultLibrary = useDefaultLibrary;
+        this.sourceDirectories = new ArrayList<>(sourceDirectories);
+        images = new ImageHistory();
+        title = "";
+        this.paragraphs = paragraphs;
+    }
+
+    /**
+     * Returns a copy of this session. Copy shares no mutable state with this
+     * session, so it can be read by another thread while this one changes.
+     * Paragraphs of a mapped file aren't decoded: copy reads them from the
+     * same mapped file.
+     *
+     * @return copy of this session.
+     */
+    Session copy() {
+        List<String> copyParagraphs;
+        if (paragraphs instanceof MappedParagraphs) {
+            copyParagraphs = ((MappedParagraphs) paragraphs).snapshot();
+        } else {
+            copyParagraphs = new ArrayList<>(paragraphs);
+        }
+        Session copy = new Session(readSubdirectory, useDefaultLibrary, sourceDirectories,
+                copyParagraphs);
+        for (int i = 0; i < images.size(); i++) {
+            copy.images.add(images.get(i));
+        }
+        copy.title = title;
+        return copy;
+    }
+
+    /**
+     * Returns if subdirectories of image source directories are read.
+     *
+     * @return true if subdirectories are read.
+     */
+    boolean isReadSubdirectory() {
+        return readSubdirectory;
+    }
+
+    /**
+     * Returns if default library is used as image source.
+     *
+     * @return true if default library is used.
+     */
+    boolean isUseDefaultLibrary() {
+        return useDefaultLibrary;
+    }
+
+    /**
+     * Returns image source directories.
+     *
+     * @return image source directories.
+     */
+    List<String> getSourceDirectories() {
+        return sourceDirectories;
+    }
+
+    /**
+     * Returns images used.
+     *
+     * @return images used, in the order they were used.
+     */
+    ImageHistory getImages() {
+        return images;
+    }
+
+    /**
+     * Returns text title.
+     *
+     * @return text title.
+     */
+    String getTitle() {
+        return title;
+    }
+
+    /**
+     * Sets text title.
+     *
+     * @param title new text title.
+     */
+    void setTitle(String title) {
+        this.title = title;
+    }
+
+    /**
+     * Returns text paragraphs. Returned list can be changed.
+     *
+     * @return text paragraphs.
+     */
+    List<String> getParagraphs() {
+        return paragraphs;
+    }
+
+    /**
+     * Replaces a range of paragraphs. Range can go beyond text end, in which
+     * case empty paragraphs are added before it. Empty paragraphs at text end
+     * are removed.
+     *
+     * @param from index of first paragraph replaced.
+     * @param to index after last paragraph replaced.
+     * @param lines new paragraphs.
+     * @return true if paragraphs changed.
+     */
+    boolean replaceParagraphs(int from, int to, List<String> lines) {
+        boolean changed = false;
+        int oldSize = paragraphs.size();
+        while (paragraphs.size() < to) {
+            paragraphs.add("");
+        }
+        if (to - from == lines.size()) {
+            for (int i = 0; i < lines.size(); i++) {
+                if (!paragraphs.get(from + i).equals(lines.get(i))) {
+                    paragraphs.set(from + i, lines.get(i));
+                    changed = true;
+                }
+            }
+        } else {
+            paragraphs.subList(from, to).clear();
+            paragraphs.addAll(from, lines);
+            changed = true;
+        }
+
+        int end = paragraphs.size();
+        while (end > 0 && paragraphs.get(end - 1).isEmpty()) {
+            end--;
+        }
+        paragraphs.subList(end, paragraphs.size()).clear();
+        return changed || paragraphs.size() != oldSize;
+    }
+}
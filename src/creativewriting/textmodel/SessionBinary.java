@@ -0,0 +1,318 @@
+package creativewriting.textmodel;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes a {@link Session} in compact binary format, used by files
+ * with extension {@code .cwb}. It holds the same data as a creative writing
+ * xml file, so files can be converted between both formats without loss.
+ * <p>
+ * File starts with a header: a magic number, format version and flags. If
+ * flag {@code COMPRESSED} is set, rest of file is compressed with deflate;
+ * files are always written compressed, but uncompressed files can be read.
+ * Then come, in this order: read subdirectory and use default library flags,
+ * image source directories, directory dictionary, images, title and
+ * paragraphs. Numbers are written as variable length integers, and strings as
+ * their UTF-8 length followed by their UTF-8 bytes. Image paths are split in
+ * parent directory, written once in directory dictionary, and file name, so
+ * paths of images from the same directory take little space.
+ *
+ * @author Thiago
+ */
+class SessionBinary {
+
+    /**
+     * Extension of binary session files.
+     */
+    static final String EXTENSION = ".cwb";
+
+    /**
+     * Number written at file start, to recognize binary session files.
+     */
+    private static final int MAGIC = 0x43574253;
+
+    /**
+     * Format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Flag set when file content after header is compressed.
+     */
+    private static final int COMPRESSED = 1;
+
+    /**
+     * Largest number of items or bytes allocated ahead of reading them. Counts
+     * read from a damaged file can be huge, so larger lists and strings grow
+     * as their content is actually read.
+     */
+    private static final int READ_AHEAD = 64 * 1024;
+
+    /**
+     * Constructor. Can't be called, this class has only static methods.
+     */
+    private SessionBinary() {
+    }
+
+    /**
+     * Returns if a file is a binary session file, by its extension.
+     *
+     * @param file file.
+     * @return true if <i>file</i> has binary session extension.
+     */
+    static boolean isBinary(File file) {
+        return file.getName().toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Reads a binary session file.
+     *
+     * @param file file to read.
+     * @return session read.
+     * @throws IOException if file can't be read, or isn't a binary session
+     * file.
+     */
+    static Session read(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return read(in);
+        } catch (EOFException ex) {
+            throw new IOException("Truncated session file: " + file, ex);
+        }
+    }
+
+    /**
+     * Reads a session in binary format from a stream. Stream is not closed.
+     *
+     * @param stream stream to read.
+     * @return session read.
+     * @throws IOException if stream can't be read, or doesn't hold a session
+     * in binary format.
+     */
+    static Session read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a binary session file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary session version: " + version);
+        }
+        int flags = in.readUnsignedByte();
+        if ((flags & COMPRESSED) == 0) {
+            return readContent(in);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            return readContent(new DataInputStream(new InflaterInputStream(stream, inflater)));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads session data that follows header.
+     *
+     * @param in stream to read, positioned after header, and decompressing
+     * data if it's compressed.
+     * @return session read.
+     * @throws IOException if stream can't be read, or doesn't hold valid
+     * session data.
+     */
+    private static Session readContent(DataInputStream in) throws IOException {
+        boolean readSub = in.readBoolean();
+        boolean mainLib = in.readBoolean();
+        int count = readCount(in);
+        List<String> sources = new ArrayList<>(Math.min(count, READ_AHEAD));
+        for (int i = 0; i < count; i++) {
+            sources.add(readString(in));
+        }
+        Session session = new Session(readSub, mainLib, sources);
+
+        count = readCount(in);
+        List<String> directories = new ArrayList<>(Math.min(count, READ_AHEAD));
+        for (int i = 0; i < count; i++) {
+            directories.add(readString(in));
+        }
+        count = readCount(in);
+        for (int i = 0; i < count; i++) {
+            int dir = readCount(in);
+            if (dir >= directories.size()) {
+                throw new IOException("Invalid directory index: " + dir);
+            }
+            session.getImages().add(directories.get(dir) + readString(in));
+        }
+
+        session.setTitle(readString(in));
+        count = readCount(in);
+        List<String> paragraphs = session.getParagraphs();
+        for (int i = 0; i < count; i++) {
+            paragraphs.add(readString(in));
+        }
+        return session;
+    }
+
+    /**
+     * Writes a session in binary format to a stream, compressing data after
+     * header. Stream is not closed.
+     *
+     * @param session session to write.
+     * @param stream stream to write.
+     * @throws IOException if stream can't be written.
+     */
+    static void write(Session session, OutputStream stream) throws IOException {
+        DataOutputStream header = new DataOutputStream(stream);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(COMPRESSED);
+        header.flush();
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        DeflaterOutputStream deflating = new DeflaterOutputStream(stream, deflater, 8192);
+        DataOutputStream out = new DataOutputStream(deflating);
+        try {
+            out.writeBoolean(session.isReadSubdirectory());
+            out.writeBoolean(session.isUseDefaultLibrary());
+            List<String> sources = session.getSourceDirectories();
+            writeCount(out, sources.size());
+            for (String source : sources) {
+                writeString(out, source);
+            }
+
+            ImageHistory images = session.getImages();
+            Map<String, Integer> dirIndexes = new HashMap<>();
+            List<String> directories = new ArrayList<>();
+            int[] imageDirs = new int[images.size()];
+            for (int i = 0; i < images.size(); i++) {
+                String dir = images.get(i).substring(0, nameStart(images.get(i)));
+                Integer index = dirIndexes.get(dir);
+                if (index == null) {
+                    index = directories.size();
+                    dirIndexes.put(dir, index);
+                    directories.add(dir);
+                }
+                imageDirs[i] = index;
+            }
+            writeCount(out, directories.size());
+            for (String dir : directories) {
+                writeString(out, dir);
+            }
+            writeCount(out, images.size());
+            for (int i = 0; i < images.size(); i++) {
+                writeCount(out, imageDirs[i]);
+                writeString(out, images.get(i).substring(nameStart(images.get(i))));
+            }
+
+            writeString(out, session.getTitle());
+            List<String> paragraphs = session.getParagraphs();
+            writeCount(out, paragraphs.size());
+            for (String paragraph : paragraphs) {
+                writeString(out, paragraph);
+            }
+            out.flush();
+            deflating.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns index where file name starts in a path.
+     *
+     * @param path image path.
+     * @return index after last separator in <i>path</i>, or 0 if there is no
+     * separator.
+     */
+    private static int nameStart(String path) {
+        return Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1;
+    }
+
+    /**
+     * Writes a non negative number as a variable length integer: seven bits
+     * per byte, high bit set in all bytes but the last.
+     *
+     * @param out stream to write.
+     * @param value number to write.
+     * @throws IOException if stream can't be written.
+     */
+    private static void writeCount(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads a number written by {@code writeCount()}.
+     *
+     * @param in stream to read.
+     * @return number read.
+     * @throws IOException if stream can't be read, or number is invalid.
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Invalid count: " + value);
+                }
+                return value;
+            }
+        }
+        throw new IOException("Invalid count");
+    }
+
+    /**
+     * Writes a string as its UTF-8 length followed by its UTF-8 bytes.
+     *
+     * @param out stream to write.
+     * @param str string to write.
+     * @throws IOException if stream can't be written.
+     */
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeCount(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@code writeString()}. Bytes are read in
+     * chunks of growing size, so a damaged length makes stream end before
+     * much memory is allocated.
+     *
+     * @param in stream to read.
+     * @return string read.
+     * @throws IOException if stream can't be read.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = readCount(in);
+        byte[] bytes = new byte[Math.min(length, READ_AHEAD)];
+        in.readFully(bytes);
+        while (bytes.length < length) {
+            int read = bytes.length;
+            bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * read));
+            in.readFully(bytes, read, bytes.length - read);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,465 @@
+package creativewriting.textmodel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of changes made to a session since its xml file was
+ * last written. Journal is kept next to xml file, with extension
+ * {@code .journal}, and records images added, title changes and paragraph
+ * changes. Saving a session can then append a few records to journal instead
+ * of rewriting the whole xml file.
+ * <p>
+ * Journal header records size and modification time of xml file it applies
+ * to. When xml file is rewritten, journal is reset; if program stops between
+ * these two steps, header no longer matches xml file and journal is ignored.
+ * <p>
+ * Records are first encoded in memory by thread that changes session, then
+ * written to disk by saving thread, with {@code append()} and {@code reset()}.
+ *
+ * @author Thiago
+ */
+class SessionJournal {
+
+    /**
+     * Number written at journal start, to recognize journal files.
+     */
+    private static final int MAGIC = 0x43574a4c;
+
+    /**
+     * Journal format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of journal header, in bytes.
+     */
+    private static final int HEADER_SIZE = 24;
+
+    /**
+     * Record type: image added.
+     */
+    private static final byte IMAGE = 1;
+
+    /**
+     * Record type: title changed.
+     */
+    private static final byte TITLE = 2;
+
+    /**
+     * Record type: range of paragraphs replaced.
+     */
+    private static final byte PARAGRAPHS = 3;
+
+    /**
+     * Journal file.
+     */
+    private final Path path;
+
+    /**
+     * Records not written to disk yet.
+     */
+    private ByteArrayOutputStream pending;
+
+    /**
+     * Record being written by {@code startRecord()} and {@code endRecord()}.
+     */
+    private ByteArrayOutputStream record;
+
+    /**
+     * Journal size on disk, in bytes.
+     */
+    private volatile long size;
+
+    /**
+     * Defines if journal file matches xml file, so records can be appended to
+     * it.
+     */
+    private volatile boolean active;
+
+    /**
+     * Constructor. Makes a new journal, not active until {@code reset()} is
+     * called.
+     *
+     * @param xmlFile xml file this journal applies to.
+     */
+    SessionJournal(File xmlFile) {
+        path = journalPath(xmlFile);
+        pending = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Opens journal of a xml file and applies its records to session read
+     * from this xml file. Records after a damaged or incomplete record, left
+     * by a crash while journal was written, are discarded. When session is
+     * opened for editing, they are also removed from journal file, if it can
+     * be written.
+     * <p>
+     * Journal file is only read, so journals on read-only files are replayed
+     * too. Such a journal, or a journal opened only to read session, is not
+     * active: next save rewrites xml file.
+     *
+     * @param xmlFile xml file.
+     * @param session session read from xml file.
+     * @param repair true if session is opened for editing, so journal can be
+     * repaired and appended to.
+     * @return journal of <i>xmlFile</i>, active if its records were applied
+     * and more records can be appended to it.
+     * @throws IOException if journal file exists but can't be read.
+     */
+    static SessionJournal open(File xmlFile, Session session, boolean repair) throws IOException {
+        SessionJournal journal = new SessionJournal(xmlFile);
+        if (!Files.isRegularFile(journal.path)) {
+            return journal;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(journal.path, StandardOpenOption.READ)) {
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+        }
+        buffer.flip();
+        long fileSize = buffer.limit();
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC
+                || buffer.getInt() != VERSION
+                || buffer.getLong() != xmlFile.length()
+                || buffer.getLong() != xmlFile.lastModified()) {
+            return journal;
+        }
+        long valid = replay(buffer, session);
+        journal.size = valid;
+        if (!repair || !Files.isWritable(journal.path)) {
+            return journal;
+        }
+        if (valid < fileSize) {
+            try (FileChannel channel = FileChannel.open(journal.path, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            } catch (IOException e) {
+                return journal;
+            }
+        }
+        journal.active = true;
+        return journal;
+    }
+
+    /**
+     * Applies records to a session.
+     *
+     * @param buffer journal content, positioned after header.
+     * @param session session to change.
+     * @return size of journal part made of complete, undamaged records.
+     */
+    private static long replay(ByteBuffer buffer, Session session) {
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length < 1 || length + 4 > buffer.remaining()) {
+                return start;
+            }
+            byte[] record = new byte[length];
+            buffer.get(record);
+            crc.reset();
+            crc.update(record, 0, length);
+            if (buffer.getInt() != (int) crc.getValue()) {
+                return start;
+            }
+            try {
+                apply(new DataInputStream(new ByteArrayInputStream(record)), session);
+            } catch (IOException | RuntimeException e) {
+                return start;
+            }
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Applies a record to a session.
+     *
+     * @param in record content.
+     * @param session session to change.
+     * @throws IOException if record is damaged.
+     */
+    private static void apply(DataInputStream in, Session session) throws IOException {
+        switch (in.readByte()) {
+            case IMAGE:
+                session.getImages().add(readString(in));
+                break;
+            case TITLE:
+                session.setTitle(readString(in));
+                break;
+            case PARAGRAPHS:
+                int from = in.readInt();
+                int to = in.readInt();
+                int count = in.readInt();
+                List<String> lines = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    lines.add(readString(in));
+                }
+                session.replaceParagraphs(from, to, lines);
+                break;
+            default:
+                throw new IOException("Unknown journal record");
+        }
+    }
+
+    /**
+     * Records an image added to session.
+     *
+     * @param imagePath image path.
+     */
+    void logImage(String imagePath) {
+        try {
+            DataOutputStream out = startRecord(IMAGE);
+            writeString(out, imagePath);
+            endRecord();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Records a title change.
+     *
+     * @param title new title.
+     */
+    void logTitle(String title) {
+        try {
+            DataOutputStream out = startRecord(TITLE);
+            writeString(out, title);
+            endRecord();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Records a range of paragraphs replaced.
+     *
+     * @param from index of first paragraph replaced.
+     * @param to index after last paragraph replaced.
+     * @param lines new paragraphs.
+     */
+    void logParagraphs(int from, int to, List<String> lines) {
+        try {
+            DataOutputStream out = startRecord(PARAGRAPHS);
+            out.writeInt(from);
+            out.writeInt(to);
+            out.writeInt(lines.size());
+            for (String line : lines) {
+                writeString(out, line);
+            }
+            endRecord();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns if there are records not written to disk yet.
+     *
+     * @return true if there are pending records.
+     */
+    boolean hasPending() {
+        return pending.size() > 0;
+    }
+
+    /**
+     * Returns records not written to disk yet, and forgets them.
+     *
+     * @return pending records, ready to be appended to journal file.
+     */
+    byte[] takePending() {
+        byte[] records = pending.toByteArray();
+        pending = new ByteArrayOutputStream();
+        return records;
+    }
+
+    /**
+     * Forgets records not written to disk yet. Used when session is about to
+     * be written to xml file, with all its changes.
+     */
+    void discardPending() {
+        pending = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Returns if journal file matches xml file, so records can be appended to
+     * it.
+     *
+     * @return true if journal is active.
+     */
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Returns if journal file has records, which aren't in xml file yet.
+     *
+     * @return true if journal file has records.
+     */
+    boolean hasRecords() {
+        return size > HEADER_SIZE;
+    }
+
+    /**
+     * Makes journal inactive, so that next save rewrites xml file. Used when
+     * xml file couldn't be written after pending records were discarded.
+     */
+    void deactivate() {
+        active = false;
+    }
+
+    /**
+     * Returns journal size on disk.
+     *
+     * @return journal size, in bytes.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Appends records to journal file, and forces them to disk. If records
+     * can't be written, journal becomes inactive, so that next save rewrites
+     * xml file.
+     *
+     * @param records records taken by {@code takePending()}.
+     * @throws IOException if records can't be written.
+     */
+    void append(byte[] records) throws IOException {
+        if (!active) {
+            throw new IOException("Journal doesn't match xml file: " + path);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(records);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            size += records.length;
+        } catch (IOException e) {
+            active = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces journal file by an empty journal that applies to xml file as it
+     * is now. Called after xml file is written.
+     *
+     * @param xmlFile xml file just written.
+     * @throws IOException if journal can't be written.
+     */
+    void reset(File xmlFile) throws IOException {
+        active = false;
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(xmlFile.length());
+                out.writeLong(xmlFile.lastModified());
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        size = HEADER_SIZE;
+        active = true;
+    }
+
+    /**
+     * Returns path of journal of a xml file.
+     *
+     * @param xmlFile xml file.
+     * @return journal path.
+     */
+    static Path journalPath(File xmlFile) {
+        Path xml = xmlFile.toPath().toAbsolutePath();
+        return xml.resolveSibling(xml.getFileName() + ".journal");
+    }
+
+    /**
+     * Starts a new record in pending records.
+     *
+     * @param type record type.
+     * @return stream to write record content.
+     * @throws IOException never, stream writes to memory.
+     */
+    private DataOutputStream startRecord(byte type) throws IOException {
+        record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeByte(type);
+        return out;
+    }
+
+    /**
+     * Adds record started by {@code startRecord()} to pending records, with
+     * its length and checksum.
+     *
+     * @throws IOException never, stream writes to memory.
+     */
+    private void endRecord() throws IOException {
+        byte[] content = record.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        DataOutputStream out = new DataOutputStream(pending);
+        out.writeInt(content.length);
+        out.write(content);
+        out.writeInt((int) crc.getValue());
+        record = null;
+    }
+
+    /**
+     * Writes a string as its UTF-8 length followed by its UTF-8 bytes.
+     *
+     * @param out stream to write.
+     * @param str string to write.
+     * @throws IOException if stream can't be written.
+     */
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@code writeString()}.
+     *
+     * @param in stream to read.
+     * @return string read.
+     * @throws IOException if stream can't be read.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new EOFException();
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,223 @@
+package creativewriting.textmodel;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Reads a creative writing xml file into a {@link Session}, in a single pass,
+ * with a streaming (StAX) parser. While file is read, its events are also
+ * sent to a schema validator, so file is validated without being read twice.
+ *
+ * @author Thiago
+ */
+class SessionReader {
+
+    /**
+     * Constructor. Can't be called, this class has only static methods.
+     */
+    private SessionReader() {
+    }
+
+    /**
+     * Reads and validates a xml file.
+     *
+     * @param file xml file to read.
+     * @return session read.
+     * @throws SAXException if file isn't a well formed, valid creative writing
+     * xml file.
+     * @throws IOException if file can't be read.
+     */
+    static Session read(File file) throws SAXException, IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            XMLStreamReader reader = XmlSupport.inputFactory().createXMLStreamReader(
+                    file.toURI().toString(), in);
+            try {
+                return read(reader, XmlSupport.schema().newValidatorHandler());
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new SAXException(ex);
+        }
+    }
+
+    /**
+     * Reads a session from a StAX reader positioned at document start.
+     *
+     * @param reader StAX reader.
+     * @param validator handler that validates xml events.
+     * @return session read.
+     * @throws XMLStreamException if xml isn't well formed.
+     * @throws SAXException if xml isn't valid.
+     */
+    private static Session read(XMLStreamReader reader, ContentHandler validator)
+            throws XMLStreamException, SAXException {
+
+        validator.setDocumentLocator(new Locator() {
+            @Override
+            public String getPublicId() {
+                return reader.getLocation().getPublicId();
+            }
+
+            @Override
+            public String getSystemId() {
+                return reader.getLocation().getSystemId();
+            }
+
+            @Override
+            public int getLineNumber() {
+                return reader.getLocation().getLineNumber();
+            }
+
+            @Override
+            public int getColumnNumber() {
+                return reader.getLocation().getColumnNumber();
+            }
+        });
+        validator.startDocument();
+
+        boolean readSub = false;
+        boolean mainLib = false;
+        List<String> sources = new ArrayList<>();
+        List<String> images = new ArrayList<>();
+        List<String> paragraphs = new ArrayList<>();
+        String title = "";
+        StringBuilder text = null;
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    startElement(reader, validator);
+                    switch (reader.getLocalName()) {
+                        case "creative_writing":
+                            readSub = "yes".equals(reader.getAttributeValue(null, "read_subdirectory"));
+                            mainLib = "yes".equals(reader.getAttributeValue(null, "use_default_library"));
+                            break;
+                        case "image_source_directory":
+                            sources.add(reader.getAttributeValue(null, "src"));
+                            break;
+                        case "img":
+                            images.add(reader.getAttributeValue(null, "src"));
+                            break;
+                        case "title":
+                        case "p":
+                            text = new StringBuilder();
+                            break;
+                        default:
+                            break;
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    validator.characters(reader.getTextCharacters(), reader.getTextStart(),
+                            reader.getTextLength());
+                    if (text != null) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(),
+                                reader.getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement(reader, validator);
+                    if (text != null) {
+                        if (reader.getLocalName().equals("title")) {
+                            title = text.toString();
+                        } else {
+                            paragraphs.add(text.toString());
+                        }
+                        text = null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        validator.endDocument();
+
+        Session session = new Session(readSub, mainLib, sources);
+        for (String image : images) {
+            session.getImages().add(image);
+        }
+        session.setTitle(title);
+        session.getParagraphs().addAll(paragraphs);
+        return session;
+    }
+
+    /**
+     * Sends start of current element to validator.
+     *
+     * @param reader StAX reader positioned at an element start.
+     * @param validator handler that validates xml events.
+     * @throws SAXException if element isn't valid.
+     */
+    private static void startElement(XMLStreamReader reader, ContentHandler validator)
+            throws SAXException {
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            validator.startPrefixMapping(nonNull(reader.getNamespacePrefix(i)),
+                    nonNull(reader.getNamespaceURI(i)));
+        }
+        AttributesImpl attributes = new AttributesImpl();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            QName name = reader.getAttributeName(i);
+            attributes.addAttribute(nonNull(name.getNamespaceURI()), name.getLocalPart(),
+                    qualifiedName(name), reader.getAttributeType(i), reader.getAttributeValue(i));
+        }
+        QName name = reader.getName();
+        validator.startElement(nonNull(name.getNamespaceURI()), name.getLocalPart(),
+                qualifiedName(name), attributes);
+    }
+
+    /**
+     * Sends end of current element to validator.
+     *
+     * @param reader StAX reader positioned at an element end.
+     * @param validator handler that validates xml events.
+     * @throws SAXException if element isn't valid.
+     */
+    private static void endElement(XMLStreamReader reader, ContentHandler validator)
+            throws SAXException {
+        QName name = reader.getName();
+        validator.endElement(nonNull(name.getNamespaceURI()), name.getLocalPart(),
+                qualifiedName(name));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            validator.endPrefixMapping(nonNull(reader.getNamespacePrefix(i)));
+        }
+    }
+
+    /**
+     * Returns qualified name, as written in xml file.
+     *
+     * @param name element or attribute name.
+     * @return qualified name.
+     */
+    private static String qualifiedName(QName name) {
+        String prefix = name.getPrefix();
+        if (prefix == null || prefix.isEmpty()) {
+            return name.getLocalPart();
+        }
+        return prefix + ":" + name.getLocalPart();
+    }
+
+    /**
+     * Returns a string, or empty string if it's null.
+     *
+     * @param str string.
+     * @return <i>str</i>, or empty string if <i>str</i> is null.
+     */
+    private static String nonNull(String str) {
+        return str == null ? "" : str;
+    }
+}
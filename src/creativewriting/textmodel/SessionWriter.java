@@ -0,0 +1,164 @@
+package creativewriting.textmodel;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes a {@link Session} as a creative writing xml file, in a single pass,
+ * with a streaming (StAX) writer. Elements are indented by four spaces per
+ * level.
+ *
+ * @author Thiago
+ */
+class SessionWriter {
+
+    /**
+     * Indentation added for each element level.
+     */
+    private static final String INDENT = "    ";
+
+    /**
+     * Constructor. Can't be called, this class has only static methods.
+     */
+    private SessionWriter() {
+    }
+
+    /**
+     * Writes a session to a file, replacing it atomically: session is written
+     * to a temporary file in the same directory, which is then moved over
+     * target file. Temporary file is forced to disk before it's moved, so a
+     * crash can't leave target file empty or truncated. If something fails,
+     * target file is left untouched. Files
+     * with binary session extension are written in compressed binary format,
+     * by {@link SessionBinary}, other files in xml format.
+     *
+     * @param session session to write.
+     * @param file file to write.
+     * @throws IOException if file can't be written.
+     */
+    static void writeAtomically(Session session, File file) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                if (SessionBinary.isBinary(file)) {
+                    SessionBinary.write(session, out);
+                } else {
+                    write(session, out);
+                }
+                out.flush();
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes a session in xml format to a stream. Stream is not closed.
+     *
+     * @param session session to write.
+     * @param out stream to write.
+     * @throws IOException if stream can't be written.
+     */
+    static void write(Session session, OutputStream out) throws IOException {
+        try {
+            XMLStreamWriter writer = XmlSupport.outputFactory().createXMLStreamWriter(out, "UTF-8");
+            try {
+                write(session, writer);
+            } finally {
+                writer.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Writes a session to a StAX writer.
+     *
+     * @param session session to write.
+     * @param writer StAX writer.
+     * @throws XMLStreamException if xml can't be written.
+     */
+    private static void write(Session session, XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartDocument("UTF-8", "1.0");
+        newLine(writer, 0);
+        writer.writeStartElement("creative_writing");
+        writer.writeAttribute("read_subdirectory", session.isReadSubdirectory() ? "yes" : "no");
+        writer.writeAttribute("use_default_library", session.isUseDefaultLibrary() ? "yes" : "no");
+
+        for (String source : session.getSourceDirectories()) {
+            newLine(writer, 1);
+            writer.writeEmptyElement("image_source_directory");
+            writer.writeAttribute("src", source);
+        }
+
+        newLine(writer, 1);
+        writer.writeStartElement("images");
+        ImageHistory images = session.getImages();
+        for (int i = 0; i < images.size(); i++) {
+            newLine(writer, 2);
+            writer.writeEmptyElement("img");
+            writer.writeAttribute("src", images.get(i));
+        }
+        newLine(writer, 1);
+        writer.writeEndElement();
+
+        newLine(writer, 1);
+        writer.writeStartElement("text");
+        newLine(writer, 2);
+        writer.writeStartElement("title");
+        writer.writeCharacters(session.getTitle());
+        writer.writeEndElement();
+        List<String> paragraphs = session.getParagraphs();
+        for (String paragraph : paragraphs) {
+            newLine(writer, 2);
+            writer.writeStartElement("p");
+            writer.writeCharacters(paragraph);
+            writer.writeEndElement();
+        }
+        newLine(writer, 1);
+        writer.writeEndElement();
+
+        newLine(writer, 0);
+        writer.writeEndElement();
+        newLine(writer, 0);
+        writer.writeEndDocument();
+        writer.flush();
+    }
+
+    /**
+     * Writes a line break followed by indentation.
+     *
+     * @param writer StAX writer.
+     * @param level element level.
+     * @throws XMLStreamException if xml can't be written.
+     */
+    private static void newLine(XMLStreamWriter writer, int level) throws XMLStreamException {
+        writer.writeCharacters("\n");
+        for (int i = 0; i < level; i++) {
+            writer.writeCharacters(INDENT);
+        }
+    }
+}
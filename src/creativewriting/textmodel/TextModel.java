@@ -1,36 +1,45 @@
 package creativewriting.textmodel;
 
-import com.sun.org.apache.xml.internal.serializer.OutputPropertiesFactory;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Writer;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import javax.imageio.ImageIO;
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import org.xml.sax.SAXException;
 
 /**
@@ -51,14 +60,85 @@ public class TextModel {
     private Random random;
     
     /**
-     * Document to store data content in xml format.
+     * Data content, read from and written to xml format.
      */
-    private Document document;
+    private Session session;
     
     /**
-     * Number of images used in creative writing.
+     * Number of changes made to this model.
      */
-    private int imageNumber;
+    private long changes;
+
+    /**
+     * Value of {@code changes} when this model was last saved. Updated by
+     * saving thread.
+     */
+    private volatile long savedChanges;
+
+    /**
+     * Journal of changes made since xml file was last written.
+     */
+    private SessionJournal journal;
+
+    /**
+     * Paragraphs mapped from xml file after it was rewritten, waiting to
+     * replace paragraphs mapped from previous file, or null.
+     */
+    private volatile Remap remapped;
+
+    /**
+     * Journal size, in bytes, above which next save rewrites xml file instead
+     * of appending to journal.
+     */
+    private static final long JOURNAL_LIMIT = 256 * 1024;
+
+    /**
+     * Time, in nanoseconds, after which a save in background rewrites xml file
+     * instead of appending to journal, so xml file is never much older than
+     * journal.
+     */
+    private static final long REWRITE_INTERVAL = TimeUnit.MINUTES.toNanos(10);
+
+    /**
+     * Time when xml file was last read or rewritten, from
+     * {@code System.nanoTime()}.
+     */
+    private long lastWrite;
+
+    /**
+     * Size, in bytes, from which xml files are memory mapped instead of
+     * parsed whole.
+     */
+    private static final long MAPPED_READ_THRESHOLD = 16 * 1024 * 1024;
+
+    /**
+     * Size of buffer used to export text, in bytes.
+     */
+    private static final int EXPORT_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Direct buffer used to export text, one per thread, so threads exporting
+     * many files don't allocate a direct buffer for each file.
+     */
+    private static final ThreadLocal<ByteBuffer> EXPORT_BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(EXPORT_BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * Background thread that writes files, one at a time, in the order saves
+     * were requested.
+     */
+    private static final ExecutorService SAVER = Executors.newSingleThreadExecutor(
+            new DaemonThreadFactory("creativewriting-saver"));
+
+    /**
+     * Paths of images used in creative writing. Same as
+     * {@code session.getImages()}.
+     */
+    private ImageHistory history;
     
     /**
      * Total number of images available in image library.
@@ -79,98 +159,388 @@ public class TextModel {
      * Path for last image that couldn't be found.
      */
     private String brokenImagePath;
+
+    /**
+     * Number of images selected and decoded ahead of {@code nextImage()}.
+     */
+    private static final int PREFETCH_SIZE = 3;
+
+    /**
+     * Background threads used to decode prefetched images.
+     */
+    private static final ExecutorService IMAGE_LOADER = Executors.newFixedThreadPool(2,
+            new DaemonThreadFactory("creativewriting-image-loader"));
+
+    /**
+     * Background threads used to read xml files and index image library.
+     */
+    private static final ExecutorService LOADER = Executors.newCachedThreadPool(
+            new DaemonThreadFactory("creativewriting-loader"));
+
+    /**
+     * Number of images found between two progress reports while image library
+     * is indexed.
+     */
+    private static final int PROGRESS_STEP = 64;
+
+    /**
+     * Images already chosen from image library, in the order they will be
+     * returned by {@code nextImage()}, each one being decoded in background.
+     */
+    private ArrayDeque<PrefetchedImage> prefetched;
+
+    /**
+     * Default memory budget, in bytes, for decoded images kept in cache.
+     */
+    public static final long DEFAULT_CACHE_BUDGET = 64L * 1024 * 1024;
+
+    /**
+     * Cache of decoded images, used when user goes back to images already
+     * displayed.
+     */
+    private final ImageCache imageCache = new ImageCache(DEFAULT_CACHE_BUDGET);
     
+    /**
+     * Image library indexing, completed when {@code imagesPaths} is ready.
+     */
+    private CompletableFuture<Void> libraryLoading;
+
+    /**
+     * Defines if image library wasn't indexed yet, and must be indexed when
+     * an image is first needed.
+     */
+    private boolean libraryPending;
+
+    /**
+     * Width at which images are displayed, or 0 to decode images at full
+     * resolution. Read by image loading threads.
+     */
+    private volatile int widthHint;
+
+    /**
+     * Height at which images are displayed, or 0 to decode images at full
+     * resolution. Read by image loading threads.
+     */
+    private volatile int heightHint;
+
+    /**
+     * Scanner reading image source directories, while image library is
+     * indexed.
+     */
+    private volatile LibraryScanner scanner;
+
+    /**
+     * Defines if image library indexing was cancelled.
+     */
+    private volatile boolean loadingCancelled;
+
+    /**
+     * Constructor. Makes an empty text model, to be filled by other
+     * constructors and factory methods.
+     */
+    private TextModel() {
+        imagesPaths = new ArrayList<>();
+        prefetched = new ArrayDeque<>();
+        random = new Random();
+        libraryLoading = CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Constructor. Makes a text model from xml file.
      *
      * @param file xml file from which read data.
-     * @throws javax.xml.parsers.ParserConfigurationException
      * @throws org.xml.sax.SAXException
      * @throws java.io.IOException
      */
-    public TextModel(File file) throws ParserConfigurationException, SAXException, IOException, IllegalStateException {
+    public TextModel(File file) throws SAXException, IOException, IllegalStateException {
+        this();
+        read(file, true);
+        loadLibrary(null);
+    }
 
-        validateXmlFile(file);
+    /**
+     * Constructor. Makes a new text model.
+     *
+     * @param file file to save this text model.
+     * @param imageFonts source image directories list.
+     * @param includeSubPaths defines if to read subdirectories also.
+     * @param includeDefaultLibrary if true, read images from default library.
+     */
+    public TextModel(File file, String[] imageFonts, boolean includeSubPaths,
+            boolean includeDefaultLibrary) {
+        this();
+        create(file, imageFonts, includeSubPaths, includeDefaultLibrary);
+        loadLibrary(null);
+    }
 
-        imagesPaths = new ArrayList<>();
-        random = new Random();
-        this.file = file;
+    /**
+     * Makes a text model from xml file in background. Returned future
+     * completes as soon as title and text are read; image library is then
+     * indexed in background, until {@code getLibraryLoading()} completes.
+     *
+     * @param file xml file from which read data.
+     * @param imageSize size at which images are displayed, as in
+     * {@code setImageSizeHint()}, or null to decode images at full
+     * resolution. It's set before first images are decoded.
+     * @param listener listener to report indexing progress, or null.
+     * @return future text model. If file can't be read, future completes
+     * with the same exceptions thrown by {@code TextModel(File)}.
+     */
+    public static CompletableFuture<TextModel> open(File file, Dimension imageSize,
+            LoadingListener listener) {
+        return load(new Callable<TextModel>() {
+            @Override
+            public TextModel call() throws Exception {
+                TextModel model = new TextModel();
+                model.read(file, true);
+                return model;
+            }
+        }, imageSize, listener);
+    }
 
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        document = builder.parse(file);
+    /**
+     * Makes a text model from a session file, reading only title, text and
+     * images used. Image library is indexed only when {@code nextImage()} or
+     * {@code getTotalImages()} is first called, on calling thread, so tools
+     * that only read or export text never scan image source directories. If
+     * an image source directory is missing, indexing fails as it does for
+     * {@code open()}: {@code getLibraryLoading()} completes exceptionally and
+     * image library is empty.
+     *
+     * @param file xml or binary session file from which read data.
+     * @return text model read.
+     * @throws SAXException if xml file isn't valid.
+     * @throws IOException if file can't be read.
+     */
+    public static TextModel readText(File file) throws SAXException, IOException {
+        TextModel model = new TextModel();
+        model.read(file, false);
+        model.libraryPending = true;
+        return model;
+    }
 
-        Element root = document.getDocumentElement();
-        boolean readSub = root.getAttribute("read_subdirectory").equals("yes");
-        boolean mainLib = root.getAttribute("use_default_library").equals("yes");
-        loadImages(readSub, mainLib);
-        imageNumber = document.getElementsByTagName("img").getLength();
+    /**
+     * Makes a new text model in background. Returned future completes as soon
+     * as xml file is written; image library is then indexed in background,
+     * until {@code getLibraryLoading()} completes.
+     *
+     * @param file file to save this text model.
+     * @param imageFonts source image directories list.
+     * @param includeSubPaths defines if to read subdirectories also.
+     * @param includeDefaultLibrary if true, read images from default library.
+     * @param imageSize size at which images are displayed, as in
+     * {@code setImageSizeHint()}, or null to decode images at full
+     * resolution. It's set before first images are decoded.
+     * @param listener listener to report indexing progress, or null.
+     * @return future text model.
+     */
+    public static CompletableFuture<TextModel> create(File file, String[] imageFonts,
+            boolean includeSubPaths, boolean includeDefaultLibrary, Dimension imageSize,
+            LoadingListener listener) {
+        return load(new Callable<TextModel>() {
+            @Override
+            public TextModel call() {
+                TextModel model = new TextModel();
+                model.create(file, imageFonts, includeSubPaths, includeDefaultLibrary);
+                return model;
+            }
+        }, imageSize, listener);
+    }
 
+    /**
+     * Runs a text model reader in background, then starts indexing image
+     * library of text model read.
+     *
+     * @param reader reader that makes a text model without image library.
+     * @param imageSize size at which images are displayed, or null.
+     * @param listener listener to report indexing progress, or null.
+     * @return future text model.
+     */
+    private static CompletableFuture<TextModel> load(Callable<TextModel> reader,
+            Dimension imageSize, LoadingListener listener) {
+        CompletableFuture<TextModel> result = new CompletableFuture<>();
+        LOADER.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isDone()) {
+                    return;
+                }
+                TextModel model;
+                try {
+                    model = reader.call();
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                if (imageSize != null) {
+                    model.setImageSizeHint(imageSize.width, imageSize.height);
+                }
+                model.libraryLoading = CompletableFuture.runAsync(new Runnable() {
+                    @Override
+                    public void run() {
+                        model.loadLibrary(listener);
+                    }
+                }, LOADER);
+                if (!result.complete(model)) {
+                    model.cancelLoading();
+                }
+            }
+        });
+        return result;
     }
 
     /**
-     * Validates a xml file to be read by this class. 
-     * @param file xml file to be validated.
+     * Reads title, text and used images from xml or binary session file.
+     * Changes in its journal are applied.
+     *
+     * @param file xml or binary session file from which read data.
+     * @param edit true if session is opened for editing, so its journal can
+     * be repaired and appended to.
      * @throws SAXException
-     * @throws IOException 
+     * @throws IOException
      */
-    private void validateXmlFile(File file) throws SAXException, IOException {
-        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-        URL url = getClass().getClassLoader().getResource("resources/validator.xsd");
-        Schema schema = factory.newSchema(url);
-        Validator validator = schema.newValidator();
-        validator.validate(new StreamSource(file));
+    private void read(File file, boolean edit) throws SAXException, IOException {
+        this.file = file;
+        session = readSession(file);
+        journal = SessionJournal.open(file, session, edit);
+        lastWrite = System.nanoTime();
+        history = session.getImages();
     }
 
     /**
-     * Constructor. Makes a new text model.
+     * Reads a session file, in binary format if it has binary session
+     * extension, in xml format otherwise. Xml files larger than
+     * {@code MAPPED_READ_THRESHOLD} are memory mapped, and their paragraphs
+     * are decoded only when read.
+     *
+     * @param file session file.
+     * @return session read.
+     * @throws SAXException if xml file isn't valid.
+     * @throws IOException if file can't be read.
+     */
+    private static Session readSession(File file) throws SAXException, IOException {
+        if (SessionBinary.isBinary(file)) {
+            return SessionBinary.read(file);
+        }
+        if (file.length() >= MAPPED_READ_THRESHOLD && MappedSessionReader.canRead(file)) {
+            return MappedSessionReader.read(file);
+        }
+        return SessionReader.read(file);
+    }
+
+    /**
+     * Converts a session file between xml and binary formats. Format of each
+     * file is defined by its extension. Changes in source journal are
+     * included.
+     *
+     * @param source session file to read.
+     * @param target session file to write.
+     * @throws SAXException if source is a xml file which isn't valid.
+     * @throws IOException if a file can't be read or written.
+     */
+    public static void convert(File source, File target) throws SAXException, IOException {
+        Session session = readSession(source);
+        SessionJournal.open(source, session, false);
+        SessionWriter.writeAtomically(session, target);
+    }
+
+    /**
+     * Returns if a file name has an extension of session files: {@code .xml}
+     * or {@code .cwb}, in any case.
+     *
+     * @param name file name.
+     * @return true if <i>name</i> is a session file name.
+     */
+    public static boolean isSessionFileName(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".xml") || lower.endsWith(SessionBinary.EXTENSION);
+    }
+
+    /**
+     * Makes a new session and saves it.
      *
      * @param file file to save this text model.
      * @param imageFonts source image directories list.
      * @param includeSubPaths defines if to read subdirectories also.
      * @param includeDefaultLibrary if true, read images from default library.
      */
-    public TextModel(File file, String[] imageFonts, boolean includeSubPaths,
+    private void create(File file, String[] imageFonts, boolean includeSubPaths,
             boolean includeDefaultLibrary) {
-        imagesPaths = new ArrayList<>();
-        random = new Random();
-        imageNumber = 0;
         this.file = file;
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            document = builder.newDocument();
-            //        document.setXmlStandalone(true);
-
-            Element root = document.createElement("creative_writing");
-            document.appendChild(root);
-            root.setAttribute("read_subdirectory", (includeSubPaths ? "yes" : "no"));
-            root.setAttribute("use_default_library", (includeDefaultLibrary ? "yes" : "no"));
-
-            for (String str : imageFonts) {
-                Element fonte = document.createElement("image_source_directory");
-                fonte.setAttribute("src", str);
-                root.appendChild(fonte);
-            }
-
-            Element imagens = document.createElement("images");
-            root.appendChild(imagens);
+        session = new Session(includeSubPaths, includeDefaultLibrary, Arrays.asList(imageFonts));
+        journal = new SessionJournal(file);
+        history = session.getImages();
+        changes++;
+        save();
+    }
 
-            Element texto = document.createElement("text");
-            root.appendChild(texto);
+    /**
+     * Indexes image library and starts decoding first images.
+     *
+     * @param listener listener to report indexing progress, or null.
+     * @throws IllegalStateException if an image source directory can't be
+     * found.
+     * @throws CancellationException if indexing is cancelled.
+     */
+    private void loadLibrary(LoadingListener listener) {
+        boolean readSub = session.isReadSubdirectory();
+        boolean mainLib = session.isUseDefaultLibrary();
+        try {
+            loadImages(readSub, mainLib, listener);
+        } catch (RuntimeException e) {
+            imagesPaths.clear();
+            totalImages = history.size();
+            throw e;
+        }
+        fillPrefetchQueue();
+    }
 
-            Element titulo = document.createElement("title");
-            titulo.setTextContent("");
-            texto.appendChild(titulo);
-            document.normalize();
+    /**
+     * Returns image library indexing. Returned future completes when
+     * {@code nextImage()} can return an image without waiting for indexing.
+     * If indexing fails, or is cancelled, future completes exceptionally, and
+     * this model behaves as if image library were empty. For a model made by
+     * {@code readText()}, it's a completed future until image library is
+     * first needed.
+     *
+     * @return image library indexing.
+     */
+    public CompletableFuture<Void> getLibraryLoading() {
+        return libraryLoading;
+    }
 
-            loadImages(includeSubPaths, includeDefaultLibrary);
+    /**
+     * Cancels image library indexing, if it's still running.
+     */
+    public void cancelLoading() {
+        loadingCancelled = true;
+        LibraryScanner current = scanner;
+        if (current != null) {
+            current.cancel();
+        }
+    }
 
-        } catch (ParserConfigurationException ex) {
-            System.err.println(ex);
+    /**
+     * Waits until image library is indexed. If image library wasn't indexed
+     * yet, indexes it now.
+     */
+    private void awaitLibrary() {
+        if (libraryPending) {
+            libraryPending = false;
+            CompletableFuture<Void> loading = new CompletableFuture<>();
+            try {
+                loadLibrary(null);
+                loading.complete(null);
+            } catch (RuntimeException e) {
+                loading.completeExceptionally(e);
+            }
+            libraryLoading = loading;
         }
+        try {
+            libraryLoading.join();
+        } catch (CompletionException | CancellationException e) {
 
-        save();
+        }
     }
 
     /**
@@ -183,30 +553,39 @@ public class TextModel {
         if (i < 0) {
             throw new IllegalArgumentException("No image with index " + i);
         }
-        NodeList list = document.getElementsByTagName("img");
-        if (i > list.getLength()) {
+        if (i > history.size()) {
             throw new IllegalArgumentException("Item position out of range: " + i
-                    + ", list length: " + list.getLength());
+                    + ", list length: " + history.size());
         }
-        if (i == list.getLength()) {
+        if (i == history.size()) {
             return nextImage();
         }
-        String path = ((Element) list.item(i)).getAttribute("src");
-        BufferedImage image = null;
+        String path = history.get(i);
+        BufferedImage image = imageCache.get(path);
+        if (image != null) {
+            return image;
+        }
         try {
-            if (path.startsWith("defaultLibrary")) {
-                URL url = getClass().getClassLoader().getResource(path);
-                image = ImageIO.read(url);
-            } else {
-                image = ImageIO.read(new File(path));
-            }
+            image = readImage(path, widthHint, heightHint);
         } catch (IOException e) {
-            image = BROKEN_IMAGE;
             brokenImagePath = path;
+            return BROKEN_IMAGE;
+        }
+        if (image != null) {
+            imageCache.put(path, image);
         }
         return image;
     }
 
+    /**
+     * Returns cache of decoded images used by this model.
+     *
+     * @return image cache, with its hit and miss counts.
+     */
+    public ImageCache getImageCache() {
+        return imageCache;
+    }
+
     /**
      * Returns path of an image that couldn't be found.
      * @return path of an image that couldn't be found.
@@ -220,7 +599,7 @@ public class TextModel {
      * @return number of images used by this model.
      */
     public int getNumberOfImages() {
-        return imageNumber;
+        return history.size();
     }
 
     /**
@@ -229,7 +608,8 @@ public class TextModel {
      * @return selected image.
      */
     public BufferedImage nextImage() {
-        int total = imagesPaths.size();
+        awaitLibrary();
+        int total = imagesPaths.size() + prefetched.size();
 
         if (total == 0) {
             URL url = getClass().getClassLoader().getResource("resources/noImages.png");
@@ -242,64 +622,324 @@ public class TextModel {
             return image;
         }
 
-        int choice = random.nextInt(total);
-        String chosenImage = imagesPaths.remove(choice);
-        Element imagens = (Element) document.getElementsByTagName("images").item(0);
-        Element imagem = document.createElement("img");
-        imagem.setAttribute("src", chosenImage);
-        imagens.appendChild(imagem);
-        imageNumber++;
+        fillPrefetchQueue();
+        PrefetchedImage chosen = prefetched.poll();
+        history.add(chosen.path);
+        journal.logImage(chosen.path);
+        changes++;
+        fillPrefetchQueue();
 
         BufferedImage image = null;
         try {
-            if (chosenImage.startsWith("defaultLibrary")) {
-                URL url = getClass().getClassLoader().getResource(chosenImage);
-                image = ImageIO.read(url);
-            } else {
-                image = ImageIO.read(new File(chosenImage));
-            }
-        } catch (IOException e) {
+            image = chosen.image.get();
+        } catch (ExecutionException e) {
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (image != null) {
+            imageCache.put(chosen.path, image);
         }
         return image;
     }
 
     /**
-     * Sets text in this model.
+     * Randomly chooses images from image library until {@code PREFETCH_SIZE}
+     * images are waiting to be returned by {@code nextImage()}, and starts
+     * decoding them in background. Images are chosen in the same order
+     * {@code nextImage()} would choose them. Display size is read when each
+     * image is decoded, so a size set after image library is indexed applies
+     * to images already chosen.
+     */
+    private void fillPrefetchQueue() {
+        while (prefetched.size() < PREFETCH_SIZE && !imagesPaths.isEmpty()) {
+            int choice = random.nextInt(imagesPaths.size());
+            String chosenImage = imagesPaths.remove(choice);
+            Future<BufferedImage> image = IMAGE_LOADER.submit(new Callable<BufferedImage>() {
+                @Override
+                public BufferedImage call() throws IOException {
+                    return readImage(chosenImage, widthHint, heightHint);
+                }
+            });
+            prefetched.add(new PrefetchedImage(chosenImage, image));
+        }
+    }
+
+    /**
+     * Sets size at which images are displayed. Images larger than this size
+     * are decoded with subsampling, skipping rows and columns, so they are
+     * decoded at no less than this size, but close to it. This takes less
+     * time and memory than decoding them at full resolution. Images already
+     * decoded aren't decoded again, but prefetched images not decoded yet use
+     * this size.
+     *
+     * @param width display width, or 0 to decode images at full resolution.
+     * @param height display height, or 0 to decode images at full
+     * resolution.
+     */
+    public void setImageSizeHint(int width, int height) {
+        widthHint = Math.max(0, width);
+        heightHint = Math.max(0, height);
+    }
+
+    /**
+     * Reads an image from default library or from file system. If image has a
+     * cached copy large enough for display size, copy is read instead;
+     * otherwise, image is decoded, and a copy is cached in background.
+     * Returned image is converted to the pixel format of the screen, so it's
+     * drawn quickly.
+     *
+     * @param path image path, as stored in xml file.
+     * @param width display width, or 0 to decode image at full resolution.
+     * @param height display height, or 0 to decode image at full resolution.
+     * @return decoded image, or null if no registered reader can decode it.
+     * @throws IOException if image can't be read.
+     */
+    private static BufferedImage readImage(String path, int width, int height) throws IOException {
+        int size = ThumbnailCache.sizeFor(width, height);
+        if (size > 0) {
+            BufferedImage thumbnail = ThumbnailCache.read(path, size);
+            if (thumbnail != null) {
+                return CompatibleImages.convert(thumbnail);
+            }
+        }
+        BufferedImage image = decodeImage(path, width, height);
+        if (image != null && size > 0) {
+            ThumbnailCache.storeLater(path, size, image);
+        }
+        return CompatibleImages.convert(image);
+    }
+
+    /**
+     * Decodes an image from default library or from file system.
+     *
+     * @param path image path, as stored in xml file.
+     * @param width display width, or 0 to decode image at full resolution.
+     * @param height display height, or 0 to decode image at full resolution.
+     * @return decoded image, or null if no registered reader can decode it.
+     * @throws IOException if image can't be read.
+     */
+    static BufferedImage decodeImage(String path, int width, int height) throws IOException {
+        if (path.startsWith("defaultLibrary")) {
+            URL url = TextModel.class.getClassLoader().getResource(path);
+            if (url == null) {
+                throw new IOException("Resource not found: " + path);
+            }
+            try (InputStream in = url.openStream()) {
+                return decode(ImageIO.createImageInputStream(in), width, height);
+            }
+        }
+        File imageFile = new File(path);
+        if (!imageFile.canRead()) {
+            throw new IOException("Can't read file: " + path);
+        }
+        return decode(ImageIO.createImageInputStream(imageFile), width, height);
+    }
+
+    /**
+     * Reads dimensions of an image from default library or from file system,
+     * from image header, without decoding pixels.
+     *
+     * @param path image path, as stored in xml file.
+     * @return image dimensions, or null if no registered reader can read it.
+     * @throws IOException if image can't be read.
+     */
+    static Dimension readImageSize(String path) throws IOException {
+        if (path.startsWith("defaultLibrary")) {
+            URL url = TextModel.class.getClassLoader().getResource(path);
+            if (url == null) {
+                throw new IOException("Resource not found: " + path);
+            }
+            try (InputStream in = url.openStream()) {
+                return readSize(ImageIO.createImageInputStream(in));
+            }
+        }
+        File imageFile = new File(path);
+        if (!imageFile.canRead()) {
+            throw new IOException("Can't read file: " + path);
+        }
+        return readSize(ImageIO.createImageInputStream(imageFile));
+    }
+
+    /**
+     * Reads dimensions of first image of a stream, from image header.
+     *
+     * @param in stream to read, or null. It's closed by this method.
+     * @return image dimensions, or null if no registered reader can read it.
+     * @throws IOException if image header can't be read.
+     */
+    private static Dimension readSize(ImageInputStream in) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Decodes first image of a stream, with the largest subsampling that
+     * keeps it at least as large as display size.
+     *
+     * @param in stream to read, or null. It's closed by this method.
+     * @param width display width, or 0 to decode image at full resolution.
+     * @param height display height, or 0 to decode image at full resolution.
+     * @return decoded image, or null if no registered reader can decode it.
+     * @throws IOException if image can't be read.
+     */
+    private static BufferedImage decode(ImageInputStream in, int width, int height) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (width > 0 && height > 0) {
+                    int step = Math.min(reader.getWidth(0) / width, reader.getHeight(0) / height);
+                    if (step > 1) {
+                        param.setSourceSubsampling(step, step, 0, 0);
+                    }
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Sets text in this model. Each line of <i>text</i> is a paragraph. Only
+     * paragraphs that changed are replaced, and empty paragraphs at text end
+     * are removed.
      *
      * @param text new text for this model.
      */
     public void setText(String text) {
 
-        Element texto = (Element) document.getElementsByTagName("text").item(0);
-        NodeList list = texto.getElementsByTagName("p");
+        List<String> list = paragraphs();
 
         String[] lines = text.split("\n");
-        
-        int cLines = Math.min(list.getLength(), lines.length);
-        
-        for(int i = 0; i < cLines; i++){
-            Node p = list.item(i);
-            p.setTextContent(lines[i]);
-        }
-        
-        if(list.getLength() > cLines ){
-            int t = list.getLength() - cLines;
-            for(int i = 0; i < t; i++){
-                Node p = list.item(cLines);
-                p.setTextContent("");
-                cLines++;
-            }
-        } else if(lines.length > cLines){
-            int t = lines.length - cLines;
-            for(int i = 0; i < t; i++){
-                Element paragrafo = document.createElement("p");
-                paragrafo.setTextContent(lines[cLines]);
-                cLines++;
-                texto.appendChild(paragrafo);
+        int newCount = lines.length;
+        while (newCount > 0 && lines[newCount - 1].isEmpty()) {
+            newCount--;
+        }
+        int oldCount = list.size();
+
+        int prefix = 0;
+        while (prefix < oldCount && prefix < newCount
+                && list.get(prefix).equals(lines[prefix])) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldCount - prefix && suffix < newCount - prefix
+                && list.get(oldCount - 1 - suffix).equals(lines[newCount - 1 - suffix])) {
+            suffix++;
+        }
+
+        replaceParagraphs(prefix, oldCount - suffix,
+                Arrays.asList(lines).subList(prefix, newCount - suffix));
+    }
+
+    /**
+     * Replaces a range of paragraphs, then removes empty paragraphs at text
+     * end. Paragraphs after text end are taken as empty paragraphs, so a range
+     * can go beyond text end.
+     *
+     * @param from index of first paragraph replaced.
+     * @param to index after last paragraph replaced.
+     * @param lines new paragraphs.
+     */
+    public void replaceParagraphs(int from, int to, List<String> lines) {
+        if (from < 0 || to < from) {
+            throw new IllegalArgumentException("Invalid paragraph range: " + from + ", " + to);
+        }
+        paragraphs();
+        if (session.replaceParagraphs(from, to, lines)) {
+            journal.logParagraphs(from, to, lines);
+            changes++;
+        }
+    }
+
+    /**
+     * Returns session paragraphs. If xml file was memory mapped and has been
+     * rewritten since, and this model didn't change since then, paragraphs
+     * are first mapped from new file, so previous file can be released.
+     *
+     * @return session paragraphs.
+     */
+    private List<String> paragraphs() {
+        Remap remap = remapped;
+        if (remap != null) {
+            remapped = null;
+            List<String> current = session.getParagraphs();
+            if (remap.changes == changes && current instanceof MappedParagraphs
+                    && current.size() == remap.paragraphs.size()) {
+                ((MappedParagraphs) current).adopt(remap.paragraphs);
             }
         }
+        return session.getParagraphs();
+    }
+
+    /**
+     * Returns number of paragraphs in this model.
+     *
+     * @return number of paragraphs.
+     */
+    public int getParagraphCount() {
+        return paragraphs().size();
+    }
 
+    /**
+     * Returns a paragraph of this model.
+     *
+     * @param i paragraph index.
+     * @return paragraph with index <i>i</i>.
+     */
+    public String getParagraph(int i) {
+        return paragraphs().get(i);
+    }
+
+    /**
+     * Returns a read-only view of a range of paragraphs. Paragraphs are read
+     * only when view is accessed, so a page of a large text can be read
+     * without reading whole text. View must not be used after this model
+     * changes.
+     *
+     * @param from index of first paragraph.
+     * @param to index after last paragraph.
+     * @return paragraphs from <i>from</i> to <i>to</i>.
+     */
+    public List<String> getParagraphs(int from, int to) {
+        return Collections.unmodifiableList(paragraphs().subList(from, to));
+    }
+
+    /**
+     * Returns if this model changed since it was last saved.
+     *
+     * @return true if there are changes not saved.
+     */
+    public boolean isModified() {
+        return changes != savedChanges;
     }
 
     /**
@@ -309,9 +949,8 @@ public class TextModel {
      */
     public String getText() {
         StringBuilder sb = new StringBuilder();
-        NodeList list = document.getElementsByTagName("p");
-        for (int i = 0; i < list.getLength(); i++) {
-            sb.append(list.item(i).getTextContent()).append("\n");
+        for (String paragraph : paragraphs()) {
+            sb.append(paragraph).append("\n");
         }
         return sb.toString();
     }
@@ -322,8 +961,11 @@ public class TextModel {
      * @param title new text title.
      */
     public void setTitle(String title) {
-        Element titleNode = (Element) document.getElementsByTagName("title").item(0);
-        titleNode.setTextContent(title);
+        if (!session.getTitle().equals(title)) {
+            session.setTitle(title);
+            journal.logTitle(title);
+            changes++;
+        }
     }
 
     /**
@@ -332,103 +974,269 @@ public class TextModel {
      * @return text title.
      */
     public String getTitle() {
-        Element titleNode = (Element) document.getElementsByTagName("title").item(0);
-        return titleNode.getTextContent();
+        return session.getTitle();
     }
 
     /**
-     * Saves a xml file wich data from this model.
+     * Saves a xml file wich data from this model. If <i>file</i> has
+     * extension {@code .cwb}, it's saved in compact binary format instead.
      *
      * @param file file to write.
      */
     public void saveAs(File file) {
+        SessionJournal targetJournal = file.equals(this.file) ? journal : new SessionJournal(file);
         try {
-            TransformerFactory factory = TransformerFactory.newInstance();
-            Transformer transformer = factory.newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.setOutputProperty(OutputPropertiesFactory.S_KEY_INDENT_AMOUNT, "4");
-            DOMSource source = new DOMSource(document);
-            StreamResult result = new StreamResult(file);
-            transformer.transform(source, result);
+            write(file, targetJournal).join();
             this.file = file;
-        } catch (TransformerConfigurationException ex) {
-            System.err.println(ex);
-        } catch (TransformerException ex) {
-            System.err.println(ex);
+            journal = targetJournal;
+        } catch (CompletionException ex) {
+            System.err.println(ex.getCause());
+        }
+    }
+
+    /**
+     * Saves changes made to this model in background, as autosave does. Data
+     * is copied before this method returns, so this model can be changed while
+     * file is written. It writes to file defined in constructor.
+     * <p>
+     * Changes are appended to journal of xml file, which is replayed when xml
+     * file is read again. When journal grows beyond {@code JOURNAL_LIMIT},
+     * doesn't match xml file, or xml file wasn't rewritten for
+     * {@code REWRITE_INTERVAL}, xml file is rewritten and journal is emptied.
+     *
+     * @return future completed when changes are written.
+     */
+    public CompletableFuture<Void> saveInBackground() {
+        if (journal.isActive() && journal.size() < JOURNAL_LIMIT && file.exists()
+                && System.nanoTime() - lastWrite < REWRITE_INTERVAL) {
+            return append();
         }
+        return write(file, journal);
+    }
+
+    /**
+     * Appends changes recorded in journal since last save to journal file, in
+     * background.
+     *
+     * @return future completed when journal is written.
+     */
+    private CompletableFuture<Void> append() {
+        SessionJournal target = journal;
+        byte[] records = target.takePending();
+        long snapshotChanges = changes;
+        return CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    target.append(records);
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+                savedChanges = snapshotChanges;
+            }
+        }, SAVER);
     }
 
     /**
-     * Saves a xml file with data from this model. It writes to file defined in
-     * constructor.
+     * Copies data from this model and writes it to a xml file, in background.
+     * File is first written to a temporary file, which then replaces target
+     * file, so target file is never left half written. Then journal of target
+     * file is emptied. If file can't be written, current journal becomes
+     * inactive, so next save rewrites xml file with changes not journaled.
+     * <p>
+     * Paragraphs of a memory mapped file are written from mapped file,
+     * without decoding them all in memory. Written file is then mapped, to
+     * replace previous mapping.
+     *
+     * @param target file to write.
+     * @param targetJournal journal of target file.
+     * @return future completed when file is written.
+     */
+    private CompletableFuture<Void> write(File target, SessionJournal targetJournal) {
+        Session snapshot = session.copy();
+        long snapshotChanges = changes;
+        lastWrite = System.nanoTime();
+        boolean remap = snapshot.getParagraphs() instanceof MappedParagraphs
+                && !SessionBinary.isBinary(target);
+        SessionJournal current = journal;
+        current.discardPending();
+        return CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SessionWriter.writeAtomically(snapshot, target);
+                    targetJournal.reset(target);
+                } catch (IOException ex) {
+                    current.deactivate();
+                    throw new CompletionException(ex);
+                }
+                if (remap) {
+                    try {
+                        Session written = MappedSessionReader.read(target);
+                        remapped = new Remap((MappedParagraphs) written.getParagraphs(),
+                                snapshotChanges);
+                    } catch (SAXException | IOException ex) {
+                        System.err.println(ex);
+                    }
+                }
+                savedChanges = snapshotChanges;
+            }
+        }, SAVER);
+    }
+
+    /**
+     * Saves changes made to this model, and waits until they are written. It
+     * writes to file defined in constructor. Xml file is rewritten with all
+     * changes, including those in its journal, so it can be used without its
+     * journal. Nothing is written if this model didn't change since it was
+     * last saved, and its journal is empty.
      */
     public void save() {
-        saveAs(file);
+        if (!isModified() && file.exists() && !journal.hasRecords()) {
+            return;
+        }
+        try {
+            write(file, journal).join();
+        } catch (CompletionException ex) {
+            System.err.println(ex.getCause());
+        }
     }
 
     /**
-     * Saves a txt file with text from this model.
+     * Saves a txt file with text from this model, encoded in UTF-8.
      *
      * @param file file to save.
      * @throws java.io.IOException if some error occurs while writing file.
      */
     public void saveTxt(File file) throws IOException {
+        saveTxt(file, StandardCharsets.UTF_8);
+    }
 
-        try (FileWriter fw = new FileWriter(file);
-                BufferedWriter bw = new BufferedWriter(fw)) {
+    /**
+     * Saves a txt file with text from this model.
+     *
+     * @param file file to save.
+     * @param charset charset used to encode text.
+     * @throws java.io.IOException if some error occurs while writing file.
+     */
+    public void saveTxt(File file, Charset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            exportText(channel, charset);
+        }
+    }
 
-            if (getTitle().length() > 0) {
-                bw.write(getTitle());
-                bw.newLine();
-                bw.newLine();
-            }
-            NodeList paragrafos = document.getElementsByTagName("p");
-            for (int i = 0; i < paragrafos.getLength(); i++) {
-                bw.write(paragrafos.item(i).getTextContent());
-                bw.newLine();
-            }
+    /**
+     * Writes text from this model: title, if any, followed by an empty line,
+     * then one paragraph per line. Writer is not closed nor buffered.
+     *
+     * @param out writer to write.
+     * @throws IOException if writer can't be written.
+     */
+    public void exportText(Writer out) throws IOException {
+        String newLine = System.lineSeparator();
+        if (getTitle().length() > 0) {
+            out.write(getTitle());
+            out.write(newLine);
+            out.write(newLine);
+        }
+        List<String> paragraphs = paragraphs();
+        for (int i = 0; i < paragraphs.size(); i++) {
+            out.write(paragraphs.get(i));
+            out.write(newLine);
         }
+        out.flush();
     }
 
     /**
-     * Checks if a file name has valid extension for image files that can be read
-     * by java applications.
-     * 
-     * @param fileName file name.
-     * @return true if file name has valid extension.
+     * Writes text from this model to a channel, as {@code exportText(Writer)}
+     * does. Paragraphs are encoded one by one into a direct buffer, which is
+     * written to channel each time it's full. Buffer is reused by later
+     * exports on the same thread. Channel is not closed.
+     *
+     * @param channel channel to write.
+     * @param charset charset used to encode text. Characters it can't encode
+     * are replaced.
+     * @throws IOException if channel can't be written.
      */
-    private boolean isValidExtension(String fileName) {
-        String[] extensions = {"png", "jpeg", "jpg", "gif", "bmp", "wbmp",
-            "PNG", "JPEG", "JPG", "GIF", "BMP", "wbmp"};
-        for (String str : extensions) {
-            if (fileName.endsWith(str)) {
-                return true;
-            }
+    public void exportText(WritableByteChannel channel, Charset charset) throws IOException {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer buffer = EXPORT_BUFFER.get();
+        buffer.clear();
+        CharBuffer newLine = CharBuffer.wrap(System.lineSeparator());
+
+        if (getTitle().length() > 0) {
+            encode(encoder, CharBuffer.wrap(getTitle()), buffer, channel);
+            encode(encoder, newLine.duplicate(), buffer, channel);
+            encode(encoder, newLine.duplicate(), buffer, channel);
         }
-        return false;
+        List<String> paragraphs = paragraphs();
+        for (int i = 0; i < paragraphs.size(); i++) {
+            encode(encoder, CharBuffer.wrap(paragraphs.get(i)), buffer, channel);
+            encode(encoder, newLine.duplicate(), buffer, channel);
+        }
+
+        CharBuffer empty = CharBuffer.allocate(0);
+        while (encoder.encode(empty, buffer, true).isOverflow()) {
+            drain(buffer, channel);
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            drain(buffer, channel);
+        }
+        drain(buffer, channel);
     }
 
     /**
-     * Stores into {@code imagePaths} variable the paths of image files.
+     * Encodes characters into a buffer, writing buffer to a channel each time
+     * it's full.
+     *
+     * @param encoder charset encoder.
+     * @param chars characters to encode.
+     * @param buffer buffer that receives encoded bytes.
+     * @param channel channel to write.
+     * @throws IOException if channel can't be written.
      */
-    private void loadImages(boolean includeSubPaths, boolean includeDefaultLibrary) {
+    private static void encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer buffer,
+            WritableByteChannel channel) throws IOException {
+        while (encoder.encode(chars, buffer, false).isOverflow()) {
+            drain(buffer, channel);
+        }
+    }
 
-        ArrayList<String> usedImages = new ArrayList<>();
-        NodeList imageList = document.getElementsByTagName("img");
-        for (int i = 0; i < imageList.getLength(); i++) {
-            String path = ((Element) imageList.item(i)).getAttribute("src");
-            usedImages.add(path);
+    /**
+     * Writes bytes in a buffer to a channel, and clears buffer.
+     *
+     * @param buffer buffer with bytes to write.
+     * @param channel channel to write.
+     * @throws IOException if channel can't be written.
+     */
+    private static void drain(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
         }
-        totalImages = imageList.getLength();
+        buffer.clear();
+    }
+
+    /**
+     * Stores into {@code imagePaths} variable the paths of image files.
+     */
+    private void loadImages(boolean includeSubPaths, boolean includeDefaultLibrary,
+            LoadingListener listener) {
+
+        totalImages = history.size();
 
         if (includeDefaultLibrary) {
-            readDefaultLibrary(usedImages);
+            readDefaultLibrary(history);
+        }
+        if (listener != null) {
+            listener.imagesFound(imagesPaths.size());
         }
 
-        NodeList fontList = document.getElementsByTagName("image_source_directory");
-        for (int i = 0; i < fontList.getLength(); i++) {
-            String dirName = ((Element) fontList.item(i)).getAttribute("src");
+        ArrayList<Path> dirs = new ArrayList<>();
+        for (String dirName : session.getSourceDirectories()) {
             File dir = new File(dirName);
             if (!dir.isDirectory()) {
                 IllegalStateException ise = new IllegalStateException(){
@@ -444,37 +1252,49 @@ public class TextModel {
                 
                 throw ise;
             }
-            loadSubPath(dir, usedImages, includeSubPaths);
+            dirs.add(dir.toPath());
         }
-        totalImages += imagesPaths.size();
-    }
-
-    /**
-     * Help method to load image paths.
-     * @param dir image directory to read.
-     * @param skipImages list with images to be skipped (images already used).
-     * @param includeSubPaths if true, read also subdirectories.
-     */
-    private void loadSubPath(File dir, ArrayList<String> skipImages, boolean includeSubPaths) {
 
-        for (File file : dir.listFiles()) {
-            if (file.isFile()) {
-                String fileName = file.getAbsolutePath();
-                if (!skipImages.contains(fileName) && isValidExtension(fileName)) {
-                    imagesPaths.add(fileName);
+        if (loadingCancelled) {
+            throw new CancellationException();
+        }
+        int libraryImages = imagesPaths.size();
+        ArrayList<String> found = new ArrayList<>();
+        scanner = new LibraryScanner(includeSubPaths, true);
+        if (loadingCancelled) {
+            scanner.cancel();
+        }
+        try {
+            scanner.scan(dirs, new Consumer<String>() {
+                @Override
+                public void accept(String fileName) {
+                    if (!history.contains(fileName)) {
+                        int count;
+                        synchronized (found) {
+                            found.add(fileName);
+                            count = found.size();
+                        }
+                        if (listener != null && count % PROGRESS_STEP == 0) {
+                            listener.imagesFound(libraryImages + count);
+                        }
+                    }
                 }
-            }
-            if (file.isDirectory() && includeSubPaths) {
-                loadSubPath(file, skipImages, includeSubPaths);
-            }
+            });
+        } finally {
+            scanner = null;
+        }
+        imagesPaths.addAll(found);
+        totalImages += imagesPaths.size();
+        if (listener != null) {
+            listener.imagesFound(imagesPaths.size());
         }
     }
 
     /**
      * Reads default library.
-     * @param skipedImages list with images to be skipped (images already used).
+     * @param skipedImages images to be skipped (images already used).
      */
-    private void readDefaultLibrary(ArrayList<String> skipedImages) {
+    private void readDefaultLibrary(ImageHistory skipedImages) {
         URL url = getClass().getClassLoader().getResource("resources/libraryList.txt");
         try (BufferedReader br = new BufferedReader(
                 new InputStreamReader(url.openStream()))) {
@@ -497,6 +1317,7 @@ public class TextModel {
      * @return total number of images in image library.
      */
     public int getTotalImages() {
+        awaitLibrary();
         return totalImages;
     }
 
@@ -507,4 +1328,58 @@ public class TextModel {
     public String getFileName() {
         return file.getName();
     }
+
+    /**
+     * Paragraphs mapped from a rewritten xml file.
+     */
+    private static class Remap {
+
+        /**
+         * Paragraphs mapped from rewritten file.
+         */
+        private final MappedParagraphs paragraphs;
+
+        /**
+         * Number of changes made to model when file was written.
+         */
+        private final long changes;
+
+        /**
+         * Constructor. Makes a new Remap.
+         *
+         * @param paragraphs paragraphs mapped from rewritten file.
+         * @param changes number of changes made to model when file was
+         * written.
+         */
+        Remap(MappedParagraphs paragraphs, long changes) {
+            this.paragraphs = paragraphs;
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * Image chosen ahead of time, with its decoding in progress.
+     */
+    private static class PrefetchedImage {
+
+        /**
+         * Image path, as stored in xml file.
+         */
+        private final String path;
+
+        /**
+         * Decoded image, available when decoding finishes.
+         */
+        private final Future<BufferedImage> image;
+
+        /**
+         * Constructor. Makes a new PrefetchedImage.
+         * @param path image path.
+         * @param image decoded image.
+         */
+        PrefetchedImage(String path, Future<BufferedImage> image) {
+            this.path = path;
+            this.image = image;
+        }
+    }
 }
@@ -0,0 +1,438 @@
+package creativewriting.textmodel;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.imageio.ImageIO;
+
+/**
+ * Persistent cache of scaled copies of images, at a few fixed sizes. Each
+ * copy fits in a square whose side is one of {@code SIZES}, and is stored in
+ * user's cache directory, in a file named after image path, size and image
+ * modification time; so when an image changes, its old copies are no longer
+ * used.
+ * <p>
+ * When an image is displayed at a size no larger than a cached size, its
+ * copy is read instead of original image. Copies are made in background when
+ * an original image is decoded, or for a whole directory by {@code warm()},
+ * which runs with command line option {@code --warm-thumbnails}.
+ *
+ * @author Thiago
+ */
+public class ThumbnailCache {
+
+    /**
+     * Sides of squares in which cached copies fit, in pixels, in increasing
+     * order.
+     */
+    public static final int[] SIZES = {256, 640, 1280};
+
+    /**
+     * Directory where cached copies are stored.
+     */
+    private static final Path THUMBNAIL_DIR = LibraryIndex.CACHE_ROOT.resolve("thumbnails");
+
+    /**
+     * Background thread that writes cached copies made while images are
+     * displayed.
+     */
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(
+            new DaemonThreadFactory("creativewriting-thumbnails", Thread.MIN_PRIORITY));
+
+    /**
+     * Stamps of images whose cached copies were looked for, by image path.
+     */
+    private static final Map<String, Stamp> STAMPS = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor. Can't be called, this class has only static methods.
+     */
+    private ThumbnailCache() {
+    }
+
+    /**
+     * Returns cached size to use for images displayed at a size.
+     *
+     * @param width display width.
+     * @param height display height.
+     * @return smallest of {@code SIZES} that holds display size, or -1 if
+     * display size is unknown or larger than all cached sizes.
+     */
+    static int sizeFor(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return -1;
+        }
+        int side = Math.max(width, height);
+        for (int size : SIZES) {
+            if (size >= side) {
+                return size;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads cached copy of an image.
+     *
+     * @param path image path, as stored in xml file.
+     * @param size one of {@code SIZES}.
+     * @return cached copy, or null if there is none.
+     */
+    static BufferedImage read(String path, int size) {
+        Path file = thumbnailFile(path, size);
+        if (file == null || !Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return ImageIO.read(file.toFile());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Makes and stores a cached copy of an image, in background. Nothing is
+     * stored if image isn't larger than cached size.
+     *
+     * @param path image path, as stored in xml file.
+     * @param size one of {@code SIZES}.
+     * @param image decoded image.
+     */
+    static void storeLater(String path, int size, BufferedImage image) {
+        if (Math.max(image.getWidth(), image.getHeight()) <= size) {
+            return;
+        }
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(path, size, fit(image, size));
+                } catch (IOException e) {
+                    System.err.println(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes cached copies, at all sizes, of all images in a directory, in
+     * parallel. Images whose copies are already cached are skipped.
+     *
+     * @param directory image source directory.
+     * @param includeSubPaths if true, include images in subdirectories.
+     * @param threads number of images processed at the same time.
+     * @return future number of images whose copies were made. It completes
+     * exceptionally if directory can't be read.
+     */
+    public static CompletableFuture<Integer> warm(File directory, boolean includeSubPaths, int threads) {
+        return CompletableFuture.supplyAsync(new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                List<String> paths = Collections.synchronizedList(new ArrayList<String>());
+                new LibraryScanner(includeSubPaths, true).scan(
+                        Collections.singletonList(directory.toPath()), new Consumer<String>() {
+                    @Override
+                    public void accept(String path) {
+                        paths.add(path);
+                    }
+                });
+                return warm(paths, threads);
+            }
+        });
+    }
+
+    /**
+     * Makes cached copies, at all sizes, of images.
+     *
+     * @param paths image paths.
+     * @param threads number of images processed at the same time.
+     * @return number of images whose copies were made.
+     */
+    private static int warm(List<String> paths, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (String path : paths) {
+                results.add(pool.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        return warm(path);
+                    }
+                }));
+            }
+            int count = 0;
+            for (Future<Boolean> result : results) {
+                try {
+                    if (result.get()) {
+                        count++;
+                    }
+                } catch (ExecutionException e) {
+                    System.err.println(e.getCause());
+                }
+            }
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Makes cached copies, at all sizes, of an image. Original image is
+     * decoded once, at largest size, and each copy is scaled from the next
+     * larger one. No copy is made at sizes image isn't larger than, so if
+     * some copy is missing, image header is read to know if it's needed.
+     *
+     * @param path image path.
+     * @return true if some copy was made.
+     * @throws IOException if image can't be read, or copies can't be written.
+     */
+    private static boolean warm(String path) throws IOException {
+        if (isCached(path, 0)) {
+            return false;
+        }
+        Dimension dimension = TextModel.readImageSize(path);
+        if (dimension == null
+                || isCached(path, Math.max(dimension.width, dimension.height))) {
+            return false;
+        }
+        int largest = SIZES[SIZES.length - 1];
+        BufferedImage image = TextModel.decodeImage(path, largest, largest);
+        if (image == null) {
+            return false;
+        }
+        boolean made = false;
+        for (int i = SIZES.length - 1; i >= 0; i--) {
+            if (Math.max(image.getWidth(), image.getHeight()) > SIZES[i]) {
+                image = fit(image, SIZES[i]);
+                write(path, SIZES[i], image);
+                made = true;
+            }
+        }
+        return made;
+    }
+
+    /**
+     * Checks if an image has cached copies at all sizes it needs.
+     *
+     * @param path image path.
+     * @param side largest image dimension, or 0 to check all sizes.
+     * @return true if there is a cached copy at each size smaller than
+     * <i>side</i>.
+     */
+    private static boolean isCached(String path, int side) {
+        for (int size : SIZES) {
+            if (side == 0 || side > size) {
+                Path file = thumbnailFile(path, size);
+                if (file == null || !Files.isRegularFile(file)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a cached copy of an image, replacing it atomically.
+     *
+     * @param path image path, as stored in xml file.
+     * @param size one of {@code SIZES}.
+     * @param thumbnail scaled copy of image.
+     * @throws IOException if copy can't be written.
+     */
+    private static void write(String path, int size, BufferedImage thumbnail) throws IOException {
+        Path file = thumbnailFile(path, size);
+        if (file == null) {
+            return;
+        }
+        Files.createDirectories(THUMBNAIL_DIR);
+        Path temp = Files.createTempFile(THUMBNAIL_DIR, "thumbnail", ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                ImageIO.write(thumbnail, "png", out);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Returns file of a cached copy of an image. Stamp of image is computed
+     * once; afterwards, only modification time of files outside default
+     * library is checked, as default library doesn't change while program
+     * runs.
+     *
+     * @param path image path, as stored in xml file.
+     * @param size one of {@code SIZES}.
+     * @return file named after path, size and modification time of image, or
+     * null if image modification time can't be found.
+     */
+    private static Path thumbnailFile(String path, int size) {
+        Stamp stamp = STAMPS.get(path);
+        if (stamp == null || (!path.startsWith("defaultLibrary")
+                && new File(path).lastModified() != stamp.modified)) {
+            long modified = lastModified(path);
+            if (modified <= 0) {
+                STAMPS.remove(path);
+                return null;
+            }
+            stamp = new Stamp(modified, hash(path + "\n" + modified));
+            STAMPS.put(path, stamp);
+        }
+        return THUMBNAIL_DIR.resolve(stamp.name + "-" + size + ".png");
+    }
+
+    /**
+     * Returns SHA-1 hash of a string.
+     *
+     * @param str string to hash.
+     * @return hash, as hexadecimal digits.
+     */
+    private static String hash(String str) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(str.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns modification time of an image from default library or from
+     * file system.
+     *
+     * @param path image path, as stored in xml file.
+     * @return modification time, or 0 if it can't be found.
+     */
+    private static long lastModified(String path) {
+        if (path.startsWith("defaultLibrary")) {
+            URL url = ThumbnailCache.class.getClassLoader().getResource(path);
+            if (url == null) {
+                return 0;
+            }
+            try {
+                if (url.getProtocol().equals("file")) {
+                    return Paths.get(url.toURI()).toFile().lastModified();
+                }
+                return url.openConnection().getLastModified();
+            } catch (Exception e) {
+                return 0;
+            }
+        }
+        return new File(path).lastModified();
+    }
+
+    /**
+     * Scales an image down to fit in a square.
+     *
+     * @param image image to scale.
+     * @param size side of square.
+     * @return scaled image.
+     */
+    private static BufferedImage fit(BufferedImage image, int size) {
+        double scale = Math.min((double) size / image.getWidth(), (double) size / image.getHeight());
+        return scale(image, Math.max(1, (int) (scale * image.getWidth())),
+                Math.max(1, (int) (scale * image.getHeight())));
+    }
+
+    /**
+     * Scales an image down in several steps, halving its size at each step
+     * until last step, with bilinear interpolation. This gives a result
+     * close to area averaging, at a fraction of its cost.
+     *
+     * @param source image to scale.
+     * @param width width of scaled image.
+     * @param height height of scaled image.
+     * @return scaled image.
+     */
+    public static BufferedImage scale(BufferedImage source, int width, int height) {
+        int type = source.getTransparency() == Transparency.OPAQUE
+                ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage current = source;
+        int w = source.getWidth();
+        int h = source.getHeight();
+        do {
+            w = w / 2 > width ? w / 2 : width;
+            h = h / 2 > height ? h / 2 : height;
+            BufferedImage step = new BufferedImage(w, h, type);
+            Graphics2D g = step.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(current, 0, 0, w, h, null);
+            g.dispose();
+            current = step;
+        } while (w != width || h != height);
+        return current;
+    }
+
+    /**
+     * Modification time of an image, and hash of its path and modification
+     * time, which names its cached copies.
+     */
+    private static class Stamp {
+
+        /**
+         * Image modification time.
+         */
+        private final long modified;
+
+        /**
+         * Hash of image path and modification time.
+         */
+        private final String name;
+
+        /**
+         * Constructor.
+         *
+         * @param modified image modification time.
+         * @param name hash of image path and modification time.
+         */
+        Stamp(long modified, String name) {
+            this.modified = modified;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package creativewriting.textmodel;
+
+import java.net.URL;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * Shared xml tools used to read, validate and write creative writing xml
+ * files. Factories are looked up and schema is compiled only once per JVM.
+ *
+ * @author Thiago
+ */
+class XmlSupport {
+
+    /**
+     * Factory of StAX readers. Configured once, then only used to make
+     * readers, which is safe from several threads.
+     */
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    /**
+     * Factory of StAX writers. Configured once, then only used to make
+     * writers, which is safe from several threads.
+     */
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
+    /**
+     * Constructor. Can't be called, this class has only static methods.
+     */
+    private XmlSupport() {
+    }
+
+    /**
+     * Returns shared factory of StAX readers.
+     *
+     * @return factory of StAX readers.
+     */
+    static XMLInputFactory inputFactory() {
+        return INPUT_FACTORY;
+    }
+
+    /**
+     * Returns shared factory of StAX writers.
+     *
+     * @return factory of StAX writers.
+     */
+    static XMLOutputFactory outputFactory() {
+        return OUTPUT_FACTORY;
+    }
+
+    /**
+     * Returns compiled schema of creative writing xml files.
+     *
+     * @return compiled schema.
+     * @throws SAXException if schema can't be compiled.
+     */
+    static Schema schema() throws SAXException {
+        return SchemaHolder.get();
+    }
+
+    /**
+     * Holder of compiled schema. Schema is compiled when first needed, and
+     * compilation is retried if it fails.
+     */
+    private static class SchemaHolder {
+
+        /**
+         * Compiled schema, or null if not compiled yet.
+         */
+        private static volatile Schema schema;
+
+        /**
+         * Returns compiled schema, compiling it if needed.
+         * @return compiled schema.
+         * @throws SAXException if schema can't be compiled.
+         */
+        static Schema get() throws SAXException {
+            Schema result = schema;
+            if (result == null) {
+                synchronized (SchemaHolder.class) {
+                    result = schema;
+                    if (result == null) {
+                        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+                        URL url = XmlSupport.class.getClassLoader().getResource("resources/validator.xsd");
+                        result = factory.newSchema(url);
+                        schema = result;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}